@@ -10,26 +10,22 @@ package net.cropsense.bso3;
  */
 public class AABB
 {
-	public int MinX;
-	public int MaxX;
-	public int MinY;
-	public int MaxY;
-	public int MinZ;
-	public int MaxZ;
+	public double MinX;
+	public double MaxX;
+	public double MinY;
+	public double MaxY;
+	public double MinZ;
+	public double MaxZ;
 
 	public AABB()
 	{
-		MinX = Integer.MAX_VALUE;
-		MaxX = Integer.MIN_VALUE;
-		MinY = Integer.MAX_VALUE;
-		MaxY = Integer.MIN_VALUE;
-		MinZ = Integer.MAX_VALUE;
-		MaxZ = Integer.MIN_VALUE;
+		Clear();
 	}
 
 	public AABB(double minX, double minY, double minZ, double maxX,
 			double maxY, double maxZ)
 	{
+		Clear();
 		Add(minX, minY, minZ);
 		Add(maxX, maxY, maxZ);
 	}
@@ -40,32 +36,32 @@ public class AABB
 		Set(other);
 	}
 
-	public int Width()
+	public double Width()
 	{
 		return MaxX - MinX;
 	}
 
-	public int Height()
+	public double Height()
 	{
 		return MaxY - MinY;
 	}
 
-	public int Depth()
+	public double Depth()
 	{
 		return MaxZ - MinZ;
 	}
 
-	public int X()
+	public double X()
 	{
 		return (MaxX + MinX) / 2;
 	}
 
-	public int Y()
+	public double Y()
 	{
 		return (MaxY + MinY) / 2;
 	}
 
-	public int Z()
+	public double Z()
 	{
 		return (MaxZ + MinZ) / 2;
 	}
@@ -77,14 +73,14 @@ public class AABB
 
 	public void Clear()
 	{
-		MinX = Integer.MAX_VALUE;
-		MaxX = Integer.MIN_VALUE;
+		MinX = Double.POSITIVE_INFINITY;
+		MaxX = Double.NEGATIVE_INFINITY;
 
-		MinY = Integer.MAX_VALUE;
-		MaxY = Integer.MIN_VALUE;
+		MinY = Double.POSITIVE_INFINITY;
+		MaxY = Double.NEGATIVE_INFINITY;
 
-		MinZ = Integer.MAX_VALUE;
-		MaxZ = Integer.MIN_VALUE;
+		MinZ = Double.POSITIVE_INFINITY;
+		MaxZ = Double.NEGATIVE_INFINITY;
 	}
 
 	public void Add(Vector3 inCoordinate)
@@ -99,13 +95,13 @@ public class AABB
 				|| Double.isInfinite(inZ) || Double.isNaN(inZ))
 			throw new IllegalArgumentException();
 
-		MinX = Math.min(MinX, (int) Math.floor(inX));
-		MinY = Math.min(MinY, (int) Math.floor(inY));
-		MinZ = Math.min(MinZ, (int) Math.floor(inZ));
+		MinX = Math.min(MinX, inX);
+		MinY = Math.min(MinY, inY);
+		MinZ = Math.min(MinZ, inZ);
 
-		MaxX = Math.max(MaxX, (int) Math.ceil(inX));
-		MaxY = Math.max(MaxY, (int) Math.ceil(inY));
-		MaxZ = Math.max(MaxZ, (int) Math.ceil(inZ));
+		MaxX = Math.max(MaxX, inX);
+		MaxY = Math.max(MaxY, inY);
+		MaxZ = Math.max(MaxZ, inZ);
 	}
 
 	public void Add(AABB bounds)
@@ -130,7 +126,7 @@ public class AABB
 		this.MaxZ = bounds.MaxZ;
 	}
 
-	public void Translate(int X, int Y, int Z)
+	public void Translate(double X, double Y, double Z)
 	{
 		this.MinX = this.MinX + X;
 		this.MinY = this.MinY + Y;
@@ -143,57 +139,49 @@ public class AABB
 
 	public void Translate(Vector3 translation)
 	{
-		this.MinX = (int) Math.floor(this.MinX + translation.X);
-		this.MinY = (int) Math.floor(this.MinY + translation.Y);
-		this.MinZ = (int) Math.floor(this.MinZ + translation.Z);
-
-		this.MaxX = (int) Math.ceil(this.MaxX + translation.X);
-		this.MaxY = (int) Math.ceil(this.MaxY + translation.Y);
-		this.MaxZ = (int) Math.ceil(this.MaxZ + translation.Z);
+		Translate(translation.X, translation.Y, translation.Z);
 	}
 
+	// an empty box stays empty when translated
 	public AABB Translated(Vector3 translation)
 	{
-		return new AABB(this.MinX + translation.X, this.MinY + translation.Y,
-				this.MinZ + translation.Z,
-
-				this.MaxX + translation.X, this.MaxY + translation.Y, this.MaxZ
-						+ translation.Z);
-
+		AABB result = new AABB(this);
+		result.Translate(translation);
+		return result;
 	}
 
 	public void Set(AABB other, Vector3 translation)
 	{
-		this.MinX = (int) Math.floor(other.MinX + translation.X);
-		this.MinY = (int) Math.floor(other.MinY + translation.Y);
-		this.MinZ = (int) Math.floor(other.MinZ + translation.Z);
-
-		this.MaxX = (int) Math.ceil(other.MaxX + translation.X);
-		this.MaxY = (int) Math.ceil(other.MaxY + translation.Y);
-		this.MaxZ = (int) Math.ceil(other.MaxZ + translation.Z);
+		Set(other);
+		Translate(translation);
 	}
 
+	// Boxes that touch within DistanceEpsilon are not outside of each other,
+	// so polygons lying on a shared face still get categorized as aligned.
 	public boolean IsOutside(AABB other)
 	{
-		return (this.MaxX - other.MinX) < 0 || (this.MinX - other.MaxX) > 0
-				|| (this.MaxY - other.MinY) < 0 || (this.MinY - other.MaxY) > 0
-				|| (this.MaxZ - other.MinZ) < 0 || (this.MinZ - other.MaxZ) > 0;
+		return IsOutside(this, other);
 	}
 
 	public static boolean IsOutside(AABB left, AABB right)
 	{
-		return (left.MaxX - right.MinX) < 0 || (left.MinX - right.MaxX) > 0
-				|| (left.MaxY - right.MinY) < 0 || (left.MinY - right.MaxY) > 0
-				|| (left.MaxZ - right.MinZ) < 0 || (left.MinZ - right.MaxZ) > 0;
+		final double epsilon = VarsConstants.DistanceEpsilon;
+		return (left.MaxX - right.MinX) < -epsilon
+				|| (left.MinX - right.MaxX) > epsilon
+				|| (left.MaxY - right.MinY) < -epsilon
+				|| (left.MinY - right.MaxY) > epsilon
+				|| (left.MaxZ - right.MinZ) < -epsilon
+				|| (left.MinZ - right.MaxZ) > epsilon;
 	}
 
 	public static boolean IsOutside(AABB left, Vector3 translation, AABB right)
 	{
-		return ((left.MaxX + translation.X) - right.MinX) < 0
-				|| ((left.MinX + translation.X) - right.MaxX) > 0
-				|| ((left.MaxY + translation.Y) - right.MinY) < 0
-				|| ((left.MinY + translation.Y) - right.MaxY) > 0
-				|| ((left.MaxZ + translation.Z) - right.MinZ) < 0
-				|| ((left.MinZ + translation.Z) - right.MaxZ) > 0;
+		final double epsilon = VarsConstants.DistanceEpsilon;
+		return ((left.MaxX + translation.X) - right.MinX) < -epsilon
+				|| ((left.MinX + translation.X) - right.MaxX) > epsilon
+				|| ((left.MaxY + translation.Y) - right.MinY) < -epsilon
+				|| ((left.MinY + translation.Y) - right.MaxY) > epsilon
+				|| ((left.MaxZ + translation.Z) - right.MinZ) < -epsilon
+				|| ((left.MinZ + translation.Z) - right.MaxZ) > epsilon;
 	}
-}
\ No newline at end of file
+}
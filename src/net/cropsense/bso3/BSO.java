@@ -1,6 +1,8 @@
 package net.cropsense.bso3;
 
 import java.io.Serializable;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -64,10 +66,17 @@ public class BSO extends ShadedNull implements Renderable, Serializable,
 	private CSGNode root;
 	private IntList indexData;
 	private FloatList vertexData;
+	/* writes the triangles of apply to indexData and vertexData */
+	private transient MeshOutput output;
 	
-	/* critical edges to debug */
-	private List<Line> edgesIMP3D;
-	private List<Point> verticesIMP3D;
+	/* settings, caches and scratch objects of the evaluation */
+	private transient CSGContext context;
+
+	/* critical edges to debug, 6 coordinates per edge, and the nodes created
+	   from them on request */
+	private FloatList boundaryEdgeCoords;
+	private transient List<Line> edgesIMP3D;
+	private transient List<Point> verticesIMP3D;
 
 	/**
 	 * Constructs a new BSO with the given operation type and color.
@@ -83,9 +92,7 @@ public class BSO extends ShadedNull implements Renderable, Serializable,
 		this.color = color;
 		indexData = new IntList();
 		vertexData = new FloatList();
-		
-		this.edgesIMP3D = new ArrayList<Line>();
-		this.verticesIMP3D = new ArrayList<Point>();
+		boundaryEdgeCoords = new FloatList();
 	}
 
 	/**
@@ -97,7 +104,6 @@ public class BSO extends ShadedNull implements Renderable, Serializable,
 	public BSO(CSGNodeType type)
 	{
 		this(type, new Color3f());
-		this.edgesIMP3D = new ArrayList<Line>();
 	}
 
 	/**
@@ -108,6 +114,17 @@ public class BSO extends ShadedNull implements Renderable, Serializable,
 		this(CSGNodeType.Addition, new Color3f());
 	}
 
+	/**
+	 * Returns the context this BSO is evaluated in. Settings made on the
+	 * context only affect this BSO.
+	 */
+	public CSGContext getContext()
+	{
+		if (context == null)
+			context = new CSGContext();
+		return context;
+	}
+
 	public IntList getIndices()
 	{
 		return indexData;
@@ -118,6 +135,40 @@ public class BSO extends ShadedNull implements Renderable, Serializable,
 		return vertexData;
 	}
 
+	/**
+	 * Returns the indices of the last apply as unsigned 16 bit values, or null
+	 * if there are too many vertices for them.
+	 */
+	public short[] getShortIndices()
+	{
+		return getOutput().getShortIndices();
+	}
+
+	/**
+	 * Returns the indices of the last apply without copying them, the buffer
+	 * is valid until the next apply.
+	 */
+	public IntBuffer getIndexBuffer()
+	{
+		return getOutput().getIndexBuffer();
+	}
+
+	/**
+	 * Returns the vertex coordinates of the last apply without copying them,
+	 * the buffer is valid until the next apply.
+	 */
+	public FloatBuffer getVertexBuffer()
+	{
+		return getOutput().getVertexBuffer();
+	}
+
+	private MeshOutput getOutput()
+	{
+		if (output == null)
+			output = new MeshOutput(indexData, vertexData);
+		return output;
+	}
+
 	/**
 	 * Returns the type of operation for this BSO.
 	 * 
@@ -149,9 +200,37 @@ public class BSO extends ShadedNull implements Renderable, Serializable,
 	 */
 	public void setPlanesSamplingSphere(int n)
 	{
-		VarsConstants.PlanesSamplingSpheres = n;
+		getContext().PlanesSamplingSpheres = n;
 	}
 	
+	/**
+	 *	set the distribution of the planes enclosing a sphere object. Fibonacci
+	 *	spreads the planes of setPlanesSamplingSphere evenly instead of crowding
+	 *	them at the poles.
+	 *
+	 * @param sampling distribution of the planes
+	 */
+	public void setSphereSampling(SphereSampling sampling)
+	{
+		getContext().SphereSampling = sampling;
+	}
+
+	/**
+	 *	set the distribution of the planes enclosing the given sphere object,
+	 *	overriding the one of setSphereSampling for this sphere.
+	 *
+	 * @param sphere a sphere of the CSG tree of this BSO
+	 * @param sampling distribution of the planes, null to use the one of
+	 * setSphereSampling again
+	 */
+	public void setSphereSampling(Sphere sphere, SphereSampling sampling)
+	{
+		if (sampling == null)
+			getContext().SphereSamplings.remove(sphere);
+		else
+			getContext().SphereSamplings.put(sphere, sampling);
+	}
+
 	/**
 	 *	set number of planes enclosing a cone object, i.e. sampling of cones.
 	 *
@@ -160,7 +239,31 @@ public class BSO extends ShadedNull implements Renderable, Serializable,
 	 */
 	public void setPlanesSamplingCone(int n)
 	{
-		VarsConstants.PlanesSamplingCones = n;
+		getContext().PlanesSamplingCones = n;
+	}
+
+	/**
+	 *	set the maximum error of the sampling of round objects, i.e. spheres,
+	 *	cones, cylinders and frusta. The number of planes enclosing an object is
+	 *	then chosen from its size instead of the fixed sampling.
+	 *
+	 * @param error maximum distance of the enclosing planes' corners from the
+	 * object's surface in world units. Values <= 0 restore the fixed sampling.
+	 */
+	public void setMaxSamplingError(double error)
+	{
+		getContext().MaxSamplingError = error;
+	}
+
+	/**
+	 *	set whether apply collects the boundary edges between visible and
+	 *	invisible polygons of the result, see getBoundaryEgdesIMP3D.
+	 *
+	 * @param debug true to collect the boundary edges
+	 */
+	public void setDebugBoundaries(boolean debug)
+	{
+		getContext().DebugBoundaries = debug;
 	}
 
 	/**
@@ -178,102 +281,53 @@ public class BSO extends ShadedNull implements Renderable, Serializable,
 	 */
 	public void apply(boolean filter, double PointOnLineTolerance, double DistanceEpsilonWelding, boolean visibility)
 	{
-		VarsConstants.PointOnLineTolerance = PointOnLineTolerance;
-		VarsConstants.DistanceEpsilonWelding = DistanceEpsilonWelding;
+		CSGContext context = getContext();
+		context.PointOnLineTolerance = PointOnLineTolerance;
+		context.DistanceEpsilonWelding = DistanceEpsilonWelding;
+		context.clearCaches();
 		
-		indexData.clear();
-		vertexData.clear();
+		MeshOutput output = getOutput();
+		output.clear();
 
 		root = generateCSGTree();
 
+		// brushes are placed by their translation, see Transformer
+		CSGUtility.UpdateChildTransformations(root, new Vector3());
 		CSGUtility.UpdateBounds(root);
 		List<CSGNode> nodes = new ArrayList<CSGNode>();
 		nodes.add(root);
-		KVPairs<CSGNode, CSGMesh> a = CSGCategorization.ProcessCSGNodes(root,
-				nodes);
-		Triangulator3 triangulator = new Triangulator3();
+		KVPairs<CSGNode, CSGMesh> a = CSGCategorization.ProcessCSGNodes(
+				context, root, nodes);
+		Triangulator3 triangulator = context.Triangulator;
 		
-		List<HalfEdge> boundaryEdges = new ArrayList<HalfEdge>();
-		List<HalfEdge> weldedEdges = new ArrayList<HalfEdge>();
-		List<Vector3> boundaryVertices = new ArrayList<Vector3>();
+		getBoundaryEdgeCoords().clear();
+		edgesIMP3D = null;
+		verticesIMP3D = null;
+		IntList boundaryEdges = context.DebugBoundaries && !filter ? new IntList() : null;
 		
-
-		List<HalfEdge> Edges = null;
-		List<Vector3> Vertices = null;
-		List<Integer> visiblePolygonsIndices = new ArrayList<Integer>();
-		List<Integer> invisiblePolygonsIndices = new ArrayList<Integer>();
+		if ( filter )
+			for (CSGNode key : a.keys())
+				a.get(key).filterMesh3(context);
+		output.reserve(a.values(), visibility);
 		
 		for (CSGNode key : a.keys())
 		{
 			CSGMesh mesh = a.get(key);
+			/* the mesh is in the frame of its node */
+			Vector3 translation = key.Translation;
 			
-			if ( filter ) mesh.filterMesh3();
-			
-			List<Polygon> polygons = mesh.Polygons;
-			List<HalfEdge> edges = mesh.Edges;
-			List<Vector3> vertices = mesh.Vertices;
-			Plane[] planes = mesh.Planes;
-			
-			Edges = edges;
-			Vertices = vertices;
-					
-			int pointCount = 0;
+			output.add(mesh, translation, visibility, triangulator, boundaryEdges);
 			
-			int k = 0;
-			
-			for (Polygon polygon : polygons)
+			System.out.println("#of polygons: "+mesh.PolygonCount);
+			System.out.println(); System.out.println();
+			if ( context.DebugBoundaries )
 			{
-				if (polygon.Visible == visibility )
-				{
-					visiblePolygonsIndices.add(k);
-					++k;
-					
-					triangulator.reset();
-					int firstEdgeIndex = polygon.FirstIndex;
-					HalfEdge firstEdge = edges.get(firstEdgeIndex);
-					Vector3 firstVertex = vertices.get(firstEdge.VertexIndex);
-					triangulator.addPoint(firstVertex.X, firstVertex.Y,
-							firstVertex.Z);
-
-					HalfEdge currentEdge = edges.get(firstEdge.NextIndex);
-					while (firstEdge != currentEdge)
-					{
-						if ( isBoundaryEdge(currentEdge, edges, polygons) ) boundaryEdges.add(currentEdge); 
-						Vector3 vertex = vertices.get(currentEdge.VertexIndex);
-						triangulator.addPoint(vertex.X, vertex.Y, vertex.Z);
-						currentEdge = edges.get(currentEdge.NextIndex);
-					} 
-					
-					Plane polygonsPlane = planes[polygon.PlaneIndex];  
-					triangulator.triangulate(polygonsPlane.Normal());
-					List<Integer> indices = triangulator.getIndices();
-
-					for (Integer i : indices)
-					{
-						indexData.add(pointCount++);
-						Vector3 vertex = triangulator.getInputPoint(i);
-						vertexData.add((float) vertex.X);
-						vertexData.add((float) vertex.Y);
-						vertexData.add((float) vertex.Z);
-					}
-				}
-				else
-				{
-					invisiblePolygonsIndices.add(k);
-					++k;
-				}
+				addBoundaryEdges(filter ? mesh.boundaryEdges : boundaryEdges, mesh, translation);
+				if ( boundaryEdges != null ) boundaryEdges.clear();
 			}
-			System.out.println("#of polygons: "+polygons.size());
-			System.out.println(); System.out.println();
-			if ( filter ) boundaryEdges = mesh.boundaryEdges;
 		}
 		
-		System.out.println("#of boundary edges: "+boundaryEdges.size());
-		
-		//outputBoundaryEdges(boundaryEdges, Edges, Vertices);*/
-		
-		Color3f red = new Color3f(255, 0, 0);
-		convertEdgesToIMP3d(this.edgesIMP3D, boundaryEdges, Edges, Vertices, red);
+		if ( context.DebugBoundaries ) System.out.println("#of boundary edges: "+boundaryEdgeCoords.size() / 6);
 	}
 
 	/**
@@ -377,16 +431,17 @@ public class BSO extends ShadedNull implements Renderable, Serializable,
 							|| start instanceof Sphere)
 					{
 						result = new CSGNode("op", type, Transformer
-								.getNodeFor(start), Transformer
-								.getNodeFor(currentChild));
+								.getNodeFor(start, getContext()), Transformer
+								.getNodeFor(currentChild, getContext()));
 					} else
 					{
-						result = Transformer.getNodeFor(currentChild);
+						result = Transformer.getNodeFor(currentChild,
+								getContext());
 					}
 				} else
 				{
 					CSGNode op = new CSGNode("op", type, result, Transformer
-							.getNodeFor(currentChild));
+							.getNodeFor(currentChild, getContext()));
 					result = op;
 				}
 			}
@@ -533,52 +588,77 @@ public class BSO extends ShadedNull implements Renderable, Serializable,
 		return result;
 	}
 	
-	private boolean isBoundaryEdge(HalfEdge check, List<HalfEdge> edges, List<Polygon> polygons)
-	{
-		int twinIndex = check.TwinIndex;
-		HalfEdge twin = edges.get(twinIndex);
-		
-		int polygonIndex = twin.PolygonIndex;
-		
-		//System.out.println("twinIndex "+twinIndex+", polygonIndex "+polygonIndex);
-		
-		if ( !polygons.get(polygonIndex).Visible ) return true;
-		else return false;
-	}
-	
-	private void convertEdgesToIMP3d(List<Line> edgesIMP3D, List<HalfEdge> boundaryEdges, List<HalfEdge> edges, List<Vector3> vertices, Color3f color)
+	private void addBoundaryEdges(IntList boundaryEdges, CSGMesh mesh, Vector3 translation)
 	{
-		for ( HalfEdge edge : boundaryEdges )
+		double[] vertices = mesh.VertexCoords;
+		for ( int i = 0; i < boundaryEdges.size(); i++ )
 		{
-			Vector3 edgeStart = vertices.get(edge.VertexIndex);
-			Vector3 edgeEnd = vertices.get(edges.get(edge.TwinIndex).VertexIndex);
-			Vector3 edgeDirection = Vector3.minus(edgeStart, edgeEnd);
-			edgeDirection.Normalize();
-			edgeDirection = edgeDirection.Negated();
-			
-			Line line = new Line((float)edgeStart.X, (float)edgeStart.Y, (float)edgeStart.Z, (float)edgeDirection.X, (float)edgeDirection.Y, (float)edgeDirection.Z);
-			line.setColor(color);
-			edgesIMP3D.add(line);			
+			int edge = boundaryEdges.get(i);
+			int start = 3 * mesh.EdgeVertex[edge];
+			int end = 3 * mesh.otherVertex(edge);
+			boundaryEdgeCoords.add((float) (vertices[start] + translation.X));
+			boundaryEdgeCoords.add((float) (vertices[start + 1] + translation.Y));
+			boundaryEdgeCoords.add((float) (vertices[start + 2] + translation.Z));
+			boundaryEdgeCoords.add((float) (vertices[end] + translation.X));
+			boundaryEdgeCoords.add((float) (vertices[end + 1] + translation.Y));
+			boundaryEdgeCoords.add((float) (vertices[end + 2] + translation.Z));
 		}
 	}
 	
-	private void convertVerticesToIMP3d(List<Point> edgesIMP3D, List<Vector3> boundaryVertices, Color3f color)
+	/**
+	 * Returns the boundary edges of the last apply as lines, empty unless
+	 * setDebugBoundaries was set for it. The lines are created on the first
+	 * call after an apply.
+	 */
+	public List<Line> getBoundaryEgdesIMP3D()
 	{
-		for ( Vector3 vertex : boundaryVertices )
+		if ( edgesIMP3D == null )
 		{
-			Point point = new Point((float)vertex.X, (float)vertex.Y, (float)vertex.Z);
-			point.setColor(color);
-			verticesIMP3D.add(point);			
+			Color3f red = new Color3f(255, 0, 0);
+			FloatList coords = getBoundaryEdgeCoords();
+			edgesIMP3D = new ArrayList<Line>(coords.size() / 6);
+			for ( int i = 0; i < coords.size(); i += 6 )
+			{
+				Vector3 edgeDirection = new Vector3(coords.get(i + 3) - coords.get(i),
+						coords.get(i + 4) - coords.get(i + 1), coords.get(i + 5) - coords.get(i + 2));
+				edgeDirection.Normalize();
+				
+				Line line = new Line(coords.get(i), coords.get(i + 1), coords.get(i + 2), (float)edgeDirection.X, (float)edgeDirection.Y, (float)edgeDirection.Z);
+				line.setColor(red);
+				edgesIMP3D.add(line);
+			}
 		}
-	}
-	
-	public List<Line> getBoundaryEgdesIMP3D()
-	{
 		return this.edgesIMP3D;
 	}
 	
+	/**
+	 * Returns the start points of the boundary edges of the last apply, see
+	 * getBoundaryEgdesIMP3D.
+	 */
 	public List<Point> getBoundaryVerticesIMP3D()
 	{
+		if ( verticesIMP3D == null )
+		{
+			Color3f red = new Color3f(255, 0, 0);
+			FloatList coords = getBoundaryEdgeCoords();
+			verticesIMP3D = new ArrayList<Point>(coords.size() / 6);
+			for ( int i = 0; i < coords.size(); i += 6 )
+			{
+				Point point = new Point(coords.get(i), coords.get(i + 1), coords.get(i + 2));
+				point.setColor(red);
+				verticesIMP3D.add(point);
+			}
+		}
 		return this.verticesIMP3D;
 	}
-}
\ No newline at end of file
+	
+	/**
+	 * Returns the boundary edges of the last apply, the coordinates of the
+	 * start and the end of every edge, see setDebugBoundaries.
+	 */
+	public FloatList getBoundaryEdgeCoords()
+	{
+		if ( boundaryEdgeCoords == null ) boundaryEdgeCoords = new FloatList();
+		return boundaryEdgeCoords;
+	}
+}
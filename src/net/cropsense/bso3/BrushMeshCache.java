@@ -0,0 +1,248 @@
+package net.cropsense.bso3;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * A thread safe cache of the meshes CreateFromPlanes builds for brushes.
+ *
+ * Meshes are keyed by the values of the brush's planes, so geometrically
+ * identical brushes share one mesh, even across evaluations and BSOs. The
+ * least recently used meshes are evicted when the cache holds more meshes or
+ * bytes than its budget allows. A mesh is built only once: callers asking
+ * for a mesh that is being built wait for it.
+ *
+ */
+public class BrushMeshCache
+{
+	private static final BrushMeshCache shared = new BrushMeshCache(
+			VarsConstants.MeshCacheEntries, VarsConstants.MeshCacheBytes);
+
+	private final int maxEntries;
+	private final long maxBytes;
+
+	/* access ordered, the least recently used entry comes first */
+	private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<Key, Entry>(
+			16, 0.75f, true);
+	private long bytes;
+
+	private long hits;
+	private long misses;
+	private long evictions;
+
+	/**
+	 * @param maxEntries maximum number of cached meshes
+	 * @param maxBytes maximum estimated size of the cached meshes
+	 */
+	public BrushMeshCache(int maxEntries, long maxBytes)
+	{
+		this.maxEntries = maxEntries;
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * @return the cache shared by all contexts that don't set their own
+	 */
+	public static BrushMeshCache getShared()
+	{
+		return shared;
+	}
+
+	/**
+	 * Returns a clone of the mesh of the brush bounded by the given planes,
+	 * building the mesh if it is not cached.
+	 */
+	public CSGMesh get(final Plane[] planes)
+	{
+		Key key = new Key(planes);
+		Entry entry;
+		boolean build = false;
+		synchronized (this)
+		{
+			entry = entries.get(key);
+			if (entry != null)
+				hits++;
+			else
+			{
+				misses++;
+				entry = new Entry(new FutureTask<CSGMesh>(
+						new Callable<CSGMesh>()
+						{
+							public CSGMesh call()
+							{
+								return CSGMesh.CreateFromPlanes(planes);
+							}
+						}));
+				entries.put(key, entry);
+				build = true;
+			}
+		}
+
+		CSGMesh mesh;
+		if (build)
+		{
+			entry.task.run();
+			mesh = getMesh(key, entry);
+			synchronized (this)
+			{
+				// the entry may have been cleared while it was built
+				if (entries.get(key) == entry)
+				{
+					entry.bytes = estimateBytes(mesh);
+					bytes += entry.bytes;
+					evict();
+				}
+			}
+		} else
+		{
+			mesh = getMesh(key, entry);
+		}
+
+		// cloning marks the arrays of the cached mesh as shared
+		synchronized (mesh)
+		{
+			return mesh.Clone();
+		}
+	}
+
+	private CSGMesh getMesh(Key key, Entry entry)
+	{
+		try
+		{
+			return entry.task.get();
+		} catch (ExecutionException e)
+		{
+			// don't cache failures, the next caller builds the mesh again
+			synchronized (this)
+			{
+				if (entries.get(key) == entry)
+					entries.remove(key);
+			}
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			if (cause instanceof Error)
+				throw (Error) cause;
+			throw new IllegalStateException(cause);
+		} catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(e);
+		}
+	}
+
+	// Evicts least recently used meshes until the cache is within its budget.
+	// Meshes that are still being built are skipped.
+	private void evict()
+	{
+		Iterator<Map.Entry<Key, Entry>> it = entries.entrySet().iterator();
+		while ((entries.size() > maxEntries || bytes > maxBytes)
+				&& it.hasNext())
+		{
+			Entry entry = it.next().getValue();
+			if (!entry.task.isDone())
+				continue;
+			it.remove();
+			bytes -= entry.bytes;
+			evictions++;
+		}
+	}
+
+	/**
+	 * Drops all cached meshes, the counters are kept.
+	 */
+	public synchronized void clear()
+	{
+		entries.clear();
+		bytes = 0;
+	}
+
+	public synchronized int size()
+	{
+		return entries.size();
+	}
+
+	/**
+	 * @return estimated size of the cached meshes in bytes
+	 */
+	public synchronized long getBytes()
+	{
+		return bytes;
+	}
+
+	public synchronized long getHits()
+	{
+		return hits;
+	}
+
+	public synchronized long getMisses()
+	{
+		return misses;
+	}
+
+	public synchronized long getEvictions()
+	{
+		return evictions;
+	}
+
+	// Estimates the memory used by the arrays and planes of the mesh
+	static long estimateBytes(CSGMesh mesh)
+	{
+		long size = 4L * (mesh.EdgeNext.length + mesh.EdgeTwin.length
+				+ mesh.EdgeVertex.length + mesh.EdgePolygon.length);
+		size += 8L * mesh.VertexCoords.length;
+		size += 4L * mesh.PolygonData.length + 8L * mesh.PolygonBounds.length;
+		size += 48L * mesh.Planes.length;
+		return size;
+	}
+
+	private static final class Entry
+	{
+		final FutureTask<CSGMesh> task;
+		long bytes;
+
+		Entry(FutureTask<CSGMesh> task)
+		{
+			this.task = task;
+		}
+	}
+
+	/* the values of the planes of a brush, in order */
+	private static final class Key
+	{
+		private final double[] values;
+		private final int hash;
+
+		Key(Plane[] planes)
+		{
+			values = new double[4 * planes.length];
+			for (int i = 0; i < planes.length; i++)
+			{
+				// adding 0.0 turns -0.0 into 0.0, which compare equal
+				values[4 * i] = planes[i].A + 0.0;
+				values[4 * i + 1] = planes[i].B + 0.0;
+				values[4 * i + 2] = planes[i].C + 0.0;
+				values[4 * i + 3] = planes[i].D + 0.0;
+			}
+			hash = Arrays.hashCode(values);
+		}
+
+		public int hashCode()
+		{
+			return hash;
+		}
+
+		public boolean equals(Object obj)
+		{
+			if (!(obj instanceof Key))
+				return false;
+			Key other = (Key) obj;
+			return hash == other.hash && Arrays.equals(values, other.values);
+		}
+	}
+}
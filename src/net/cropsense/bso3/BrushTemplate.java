@@ -0,0 +1,199 @@
+package net.cropsense.bso3;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * The topology of a brush mesh, with every vertex given by the planes it lies
+ * on. Brushes whose planes differ only in their values, like cylinders of
+ * different sizes and orientations with the same sampling, share a template:
+ * their meshes are clones of the template's mesh with the vertices evaluated
+ * for their planes, so the topology is not searched again.
+ *
+ * Instances must have the same number of planes in the same order, and
+ * planes that bound the brush the same way as the planes the template was
+ * created from.
+ *
+ */
+public class BrushTemplate
+{
+	/* plane indices of every mesh vertex, in ascending order */
+	private final int[][] vertexPlanes;
+	/* mesh of the planes the template was created from */
+	final CSGMesh Mesh;
+
+	/**
+	 * @param planes planes of the brush
+	 * @param coords coordinates of the vertices, 3 per vertex
+	 * @param vertexPlanes indices of the planes every vertex lies on
+	 * @param faces vertex loop of the polygon on every plane, counterclockwise
+	 *            seen from outside, or null if the plane does not bound the
+	 *            brush
+	 */
+	BrushTemplate(Plane[] planes, double[] coords, int[][] vertexPlanes,
+			int[][] faces)
+	{
+		int edgeCount = 0;
+		for (int[] loop : faces)
+			if (loop != null)
+				edgeCount += loop.length;
+
+		CSGMesh mesh = new CSGMesh(planes, edgeCount, 2 * planes.length,
+				planes.length, new AABB());
+		for (int i = 0; i < planes.length; i++)
+			mesh.addPolygon(-1, i, PolygonCategory.Aligned, false);
+
+		// mesh vertices in the order of the polygons
+		int[] vertexRemap = new int[vertexPlanes.length];
+		Arrays.fill(vertexRemap, -1);
+		HashMap<Long, Integer> halfEdges = new HashMap<Long, Integer>();
+		AABB bounds = new AABB();
+		for (int plane = 0; plane < planes.length; plane++)
+		{
+			int[] loop = faces[plane];
+			if (loop == null)
+				continue;
+
+			for (int vertex : loop)
+			{
+				if (vertexRemap[vertex] == -1)
+				{
+					int offset = 3 * vertex;
+					vertexRemap[vertex] = mesh.addVertex(coords[offset],
+							coords[offset + 1], coords[offset + 2]);
+					bounds.Add(coords[offset], coords[offset + 1],
+							coords[offset + 2]);
+					mesh.Dop.Add(coords[offset], coords[offset + 1],
+							coords[offset + 2]);
+				}
+			}
+
+			// a half-edge points to the vertex it ends at
+			int firstEdge = mesh.EdgeCount;
+			for (int i = 0; i < loop.length; i++)
+			{
+				int from = loop[i];
+				int to = loop[(i + 1) % loop.length];
+				int edge = mesh.addEdge();
+				mesh.EdgeVertex[edge] = vertexRemap[to];
+				mesh.EdgePolygon[edge] = plane;
+				mesh.EdgeNext[edge] = i + 1 < loop.length ? edge + 1
+						: firstEdge;
+				halfEdges.put(edgeKey(from, to), edge);
+				mesh.addToPolygonBounds(plane, vertexRemap[to]);
+			}
+			mesh.setFirstIndex(plane, firstEdge);
+		}
+
+		for (int plane = 0; plane < planes.length; plane++)
+		{
+			int[] loop = faces[plane];
+			if (loop == null)
+				continue;
+			for (int i = 0; i < loop.length; i++)
+			{
+				int from = loop[i];
+				int to = loop[(i + 1) % loop.length];
+				Integer twin = halfEdges.get(edgeKey(to, from));
+				mesh.EdgeTwin[halfEdges.get(edgeKey(from, to))] = twin == null ? -1
+						: twin;
+			}
+		}
+		mesh.Bounds.Set(bounds);
+
+		this.Mesh = mesh;
+		this.vertexPlanes = new int[mesh.VertexCount][];
+		for (int vertex = 0; vertex < vertexPlanes.length; vertex++)
+		{
+			if (vertexRemap[vertex] == -1)
+				continue;
+			// planes beyond the brush's planes leave the vertex without a
+			// position, the brush is unbounded
+			int[] sorted = vertexPlanes[vertex].clone();
+			Arrays.sort(sorted);
+			int count = 0;
+			while (count < sorted.length && sorted[count] < planes.length)
+				count++;
+			this.vertexPlanes[vertexRemap[vertex]] = Arrays.copyOf(sorted,
+					count);
+		}
+	}
+
+	/**
+	 * Creates the mesh of the brush bounded by the given planes, or returns
+	 * null if a vertex has no proper intersection of its planes.
+	 */
+	public CSGMesh instantiate(Plane[] brushPlanes)
+	{
+		if (brushPlanes.length != Mesh.Planes.length)
+			throw new IllegalArgumentException("The template has "
+					+ Mesh.Planes.length + " planes, not "
+					+ brushPlanes.length + ".");
+
+		Plane[] planes = new Plane[brushPlanes.length];
+		for (int i = 0; i < brushPlanes.length; i++)
+		{
+			Plane plane = brushPlanes[i];
+			planes[i] = new Plane(plane.A, plane.B, plane.C, plane.D);
+		}
+
+		Vector3[] vertices = new Vector3[vertexPlanes.length];
+		for (int vertex = 0; vertex < vertexPlanes.length; vertex++)
+		{
+			vertices[vertex] = intersection(planes, vertexPlanes[vertex]);
+			if (vertices[vertex] == null)
+				return null;
+		}
+
+		// cloning marks the arrays of the template's mesh as shared
+		CSGMesh mesh;
+		synchronized (Mesh)
+		{
+			mesh = Mesh.Clone();
+		}
+		mesh.Planes = planes;
+
+		AABB bounds = new AABB();
+		mesh.Dop.Clear();
+		for (int vertex = 0; vertex < vertices.length; vertex++)
+		{
+			Vector3 position = vertices[vertex];
+			mesh.setVertex(vertex, position.X, position.Y, position.Z);
+			bounds.Add(position.X, position.Y, position.Z);
+			mesh.Dop.Add(position.X, position.Y, position.Z);
+		}
+		mesh.Bounds.Set(bounds);
+
+		for (int polygon = 0; polygon < mesh.PolygonCount; polygon++)
+			if (mesh.getFirstIndex(polygon) != -1)
+				mesh.updatePolygonBounds(polygon);
+		return mesh;
+	}
+
+	/**
+	 * Returns the intersection of the first triple of the given planes, in
+	 * ascending order, that has a proper intersection, or null.
+	 */
+	static Vector3 intersection(Plane[] planes, int[] sortedPlanes)
+	{
+		for (int i = 0; i < sortedPlanes.length - 2; i++)
+			for (int j = i + 1; j < sortedPlanes.length - 1; j++)
+				for (int k = j + 1; k < sortedPlanes.length; k++)
+				{
+					Vector3 vertex = Plane.Intersection(planes[sortedPlanes[i]],
+							planes[sortedPlanes[j]], planes[sortedPlanes[k]]);
+					if (!Double.isNaN(vertex.X) && !Double.isInfinite(vertex.X)
+							&& !Double.isNaN(vertex.Y)
+							&& !Double.isInfinite(vertex.Y)
+							&& !Double.isNaN(vertex.Z)
+							&& !Double.isInfinite(vertex.Z))
+						return vertex;
+				}
+		return null;
+	}
+
+	static Long edgeKey(int a, int b)
+	{
+		return Long.valueOf(((long) a << 32) | (b & 0xFFFFFFFFL));
+	}
+}
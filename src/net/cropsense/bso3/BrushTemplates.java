@@ -0,0 +1,160 @@
+package net.cropsense.bso3;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * The templates of the meshes of the GroIMP primitives, created once per
+ * primitive and sampling for a primitive of unit size. Boxes, cylinders,
+ * frusta and cones are generated from their known topology, the topology of
+ * the sampled spheres is built once from their planes.
+ *
+ * The templates fit primitives of any positive size with the same sampling,
+ * rotated and uniformly scaled. Other transformations may change which planes
+ * meet at a vertex.
+ *
+ */
+public class BrushTemplates
+{
+	private static final HashMap<String, BrushTemplate> templates = new HashMap<String, BrushTemplate>();
+
+	public static synchronized BrushTemplate box()
+	{
+		BrushTemplate template = templates.get("box");
+		if (template == null)
+		{
+			template = box(Transformer.boxPlanes(1f, 1f, 1f));
+			templates.put("box", template);
+		}
+		return template;
+	}
+
+	public static synchronized BrushTemplate cylinder(int n)
+	{
+		BrushTemplate template = templates.get("cylinder " + n);
+		if (template == null)
+		{
+			template = prism(Transformer.cylinderPlanes(1f, 1f, n));
+			templates.put("cylinder " + n, template);
+		}
+		return template;
+	}
+
+	public static synchronized BrushTemplate frustum(int n)
+	{
+		BrushTemplate template = templates.get("frustum " + n);
+		if (template == null)
+		{
+			template = prism(Transformer.frustumPlanes(1f, 0.5f, 1f, n));
+			templates.put("frustum " + n, template);
+		}
+		return template;
+	}
+
+	public static synchronized BrushTemplate cone(int n)
+	{
+		BrushTemplate template = templates.get("cone " + n);
+		if (template == null)
+		{
+			template = pyramid(Transformer.conePlanes(1f, 1f, n));
+			templates.put("cone " + n, template);
+		}
+		return template;
+	}
+
+	public static synchronized BrushTemplate sphere(int n)
+	{
+		BrushTemplate template = templates.get("sphere " + n);
+		if (template == null)
+		{
+			template = ConvexBrushBuilder.buildTemplate(Transformer
+					.spherePlanes(1f, n).toArray(new Plane[0]));
+			templates.put("sphere " + n, template);
+		}
+		return template;
+	}
+
+	public static synchronized BrushTemplate sphereFibonacci(int count)
+	{
+		BrushTemplate template = templates.get("sphereFibonacci " + count);
+		if (template == null)
+		{
+			template = ConvexBrushBuilder.buildTemplate(Transformer
+					.sphereFibonacciPlanes(1f, count).toArray(new Plane[0]));
+			templates.put("sphereFibonacci " + count, template);
+		}
+		return template;
+	}
+
+	// Planes +x, -x, +y, -y, +z, -z. Vertex i lies on the positive plane of
+	// axis a if bit a of i is set.
+	private static BrushTemplate box(List<Plane> planes)
+	{
+		int[][] vertexPlanes = new int[8][];
+		for (int i = 0; i < 8; i++)
+			vertexPlanes[i] = new int[] { (i & 1) != 0 ? 0 : 1,
+					(i & 2) != 0 ? 2 : 3, (i & 4) != 0 ? 4 : 5 };
+
+		int[][] faces = new int[][] { { 1, 3, 7, 5 }, { 0, 4, 6, 2 },
+				{ 2, 6, 7, 3 }, { 0, 1, 5, 4 }, { 4, 5, 7, 6 }, { 0, 2, 3, 1 } };
+		return create(planes, vertexPlanes, faces);
+	}
+
+	// Planes top, bottom and n sides in counterclockwise order. Top vertex k
+	// and bottom vertex n + k lie between side k and side k + 1.
+	private static BrushTemplate prism(List<Plane> planes)
+	{
+		int n = planes.size() - 2;
+		int[][] vertexPlanes = new int[2 * n][];
+		int[][] faces = new int[n + 2][];
+		faces[0] = new int[n];
+		faces[1] = new int[n];
+		for (int k = 0; k < n; k++)
+		{
+			int previous = (k + n - 1) % n;
+			vertexPlanes[k] = new int[] { 0, 2 + k, 2 + (k + 1) % n };
+			vertexPlanes[n + k] = new int[] { 1, 2 + k, 2 + (k + 1) % n };
+			faces[0][k] = k;
+			faces[1][n - 1 - k] = n + k;
+			faces[2 + k] = new int[] { n + previous, n + k, k, previous };
+		}
+		return create(planes, vertexPlanes, faces);
+	}
+
+	// Planes bottom and n sides in counterclockwise order. Vertex k lies
+	// between side k and side k + 1, vertex n is the apex.
+	private static BrushTemplate pyramid(List<Plane> planes)
+	{
+		int n = planes.size() - 1;
+		int[][] vertexPlanes = new int[n + 1][];
+		int[][] faces = new int[n + 1][];
+		faces[0] = new int[n];
+		vertexPlanes[n] = new int[n];
+		for (int k = 0; k < n; k++)
+		{
+			vertexPlanes[k] = new int[] { 0, 1 + k, 1 + (k + 1) % n };
+			vertexPlanes[n][k] = 1 + k;
+			faces[0][n - 1 - k] = k;
+			faces[1 + k] = new int[] { (k + n - 1) % n, k, n };
+		}
+		return create(planes, vertexPlanes, faces);
+	}
+
+	private static BrushTemplate create(List<Plane> planeList,
+			int[][] vertexPlanes, int[][] faces)
+	{
+		Plane[] planes = planeList.toArray(new Plane[0]);
+		double[] coords = new double[3 * vertexPlanes.length];
+		for (int vertex = 0; vertex < vertexPlanes.length; vertex++)
+		{
+			int[] sorted = vertexPlanes[vertex].clone();
+			Arrays.sort(sorted);
+			Vector3 position = BrushTemplate.intersection(planes, sorted);
+			coords[3 * vertex] = position.X;
+			coords[3 * vertex + 1] = position.Y;
+			coords[3 * vertex + 2] = position.Z;
+		}
+		return new BrushTemplate(planes, coords, vertexPlanes, faces);
+	}
+}
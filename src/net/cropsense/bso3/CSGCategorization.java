@@ -1,7 +1,13 @@
 package net.cropsense.bso3;
 
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import de.grogra.xl.util.IntList;
 
 
 /**
@@ -19,9 +25,9 @@ public class CSGCategorization
 	// individual
 	// piece is then categorized.
 	public static void Categorize(CSGNode processedNode, CSGMesh processedMesh,
-			CSGNode categorizationNode, List<Polygon> inputPolygons,
-			List<Polygon> inside, List<Polygon> aligned,
-			List<Polygon> revAligned, List<Polygon> outside)
+			CSGNode categorizationNode, IntList inputPolygons,
+			IntList inside, IntList aligned,
+			IntList revAligned, IntList outside)
 	{
 		// When you go deep enough in the tree it's possible that all categories
 		// point to the same destination. So we detect that and potentially
@@ -44,9 +50,10 @@ public class CSGCategorization
 				// default category
 				// (usually aligned, unless it's an instancing node in which
 				// case it's precalculated)
-				for (Polygon polygon : inputPolygons)
+				for (int i = 0; i < inputPolygons.size(); i++)
 				{
-					switch (polygon.Category)
+					int polygon = inputPolygons.get(i);
+					switch (processedMesh.getCategory(polygon))
 					{
 					case Aligned:
 						aligned.add(polygon);
@@ -72,7 +79,7 @@ public class CSGCategorization
 					// the surface area with another
 					// brush further on in the tree it'll be set to invisible
 					// again in mesh.Intersect.
-					polygon.Visible = true;
+					processedMesh.setVisible(polygon, true);
 				}
 				return;
 			}
@@ -98,11 +105,11 @@ public class CSGCategorization
 						processedNode.Translation, leftNode.Translation);
 				Vector3 relativeRightTrans = Vector3.Subtract(
 						processedNode.Translation, rightNode.Translation);
-				if (AABB.IsOutside(processedNode.Bounds, relativeLeftTrans,
-						leftNode.Bounds))
+				if (IsOutside(processedNode, relativeLeftTrans,
+						leftNode))
 				{
-					if (AABB.IsOutside(processedNode.Bounds,
-							relativeRightTrans, rightNode.Bounds))
+					if (IsOutside(processedNode,
+							relativeRightTrans, rightNode))
 					{
 						// When our polygons lie outside the bounds of both the
 						// left and the right node, then
@@ -118,8 +125,8 @@ public class CSGCategorization
 						// goto Restart;
 						continue;
 					}
-				} else if (AABB.IsOutside(processedNode.Bounds,
-						relativeRightTrans, rightNode.Bounds))
+				} else if (IsOutside(processedNode,
+						relativeRightTrans, rightNode))
 				{
 					// Categorize(processedNode, left, mesh,
 					// inputPolygons,
@@ -142,10 +149,10 @@ public class CSGCategorization
 						processedNode.Translation, leftNode.Translation);
 				Vector3 relativeRightTrans = Vector3.Subtract(
 						processedNode.Translation, rightNode.Translation);
-				if (AABB.IsOutside(processedNode.Bounds, relativeLeftTrans,
-						leftNode.Bounds)
-						|| AABB.IsOutside(processedNode.Bounds,
-								relativeRightTrans, rightNode.Bounds))
+				if (IsOutside(processedNode, relativeLeftTrans,
+						leftNode)
+						|| IsOutside(processedNode,
+								relativeRightTrans, rightNode))
 				{
 					// When our polygons lie outside the bounds of both the left
 					// and the right node, then
@@ -166,15 +173,15 @@ public class CSGCategorization
 						processedNode.Translation, leftNode.Translation);
 				Vector3 relativeRightTrans = Vector3.Subtract(
 						processedNode.Translation, rightNode.Translation);
-				if (AABB.IsOutside(processedNode.Bounds, relativeLeftTrans,
-						leftNode.Bounds))
+				if (IsOutside(processedNode, relativeLeftTrans,
+						leftNode))
 				{
 					// When our polygons lie outside the bounds of both the left
 					// node, then
 					// all the polygons can be categorized as being 'outside'
 					outside.addAll(inputPolygons);
-				} else if (AABB.IsOutside(processedNode.Bounds,
-						relativeRightTrans, rightNode.Bounds))
+				} else if (IsOutside(processedNode,
+						relativeRightTrans, rightNode))
 				{
 					categorizationNode = leftNode;
 					// goto Restart;
@@ -192,6 +199,17 @@ public class CSGCategorization
 		} while (control == true);
 	}
 
+	// Checks if the bounds of the processed node lie outside the bounds of
+	// the other node, using the tighter KDOPs when both nodes have one
+	static boolean IsOutside(CSGNode processedNode, Vector3 translation,
+			CSGNode other)
+	{
+		if (AABB.IsOutside(processedNode.Bounds, translation, other.Bounds))
+			return true;
+		return processedNode.Dop != null && other.Dop != null
+				&& KDOP.IsOutside(processedNode.Dop, translation, other.Dop);
+	}
+
 	// Logical OR set operation on polygons
 	//
 	// Table showing final output from combination of categorization of left and
@@ -209,9 +227,9 @@ public class CSGCategorization
 	// O = outside R = reverse aligned
 	//
 	static void LogicalOr(CSGNode processedNode, CSGMesh processedMesh,
-			CSGNode categorizationNode, List<Polygon> inputPolygons,
-			List<Polygon> inside, List<Polygon> aligned,
-			List<Polygon> revAligned, List<Polygon> outside,
+			CSGNode categorizationNode, IntList inputPolygons,
+			IntList inside, IntList aligned,
+			IntList revAligned, IntList outside,
 			boolean inverseLeft, boolean inverseRight)
 	{
 		CSGNode leftNode = categorizationNode.Left;
@@ -224,9 +242,9 @@ public class CSGCategorization
 		// which would increase performance and scalability (garbage collection
 		// interfers with parallelization).
 		// It makes the code a lot harder to read however.
-		List<Polygon> leftAligned = new ArrayList<Polygon>(0);
-		List<Polygon> leftRevAligned = new ArrayList<Polygon>(0);
-		List<Polygon> leftOutside = new ArrayList<Polygon>(0);
+		IntList leftAligned = new IntList();
+		IntList leftRevAligned = new IntList();
+		IntList leftOutside = new IntList();
 		// var leftInside = new List<Polygon>(defaultCapacity); // everything
 		// that's inside the left node
 		// is always part of the inside category
@@ -301,14 +319,46 @@ public class CSGCategorization
 		}
 	}
 
-	// Create meshes for a given number of nodes and perform CSG on these.
-	// We cache our base meshes here
-	static KVPairs<CSGNode, CSGMesh> cachedBaseMeshes = new KVPairs<CSGNode, CSGMesh>();
-
+	// Create meshes for a given number of nodes and perform CSG on these,
+	// with the default settings and a context of its own
 	public static KVPairs<CSGNode, CSGMesh> ProcessCSGNodes(CSGNode root,
 			List<CSGNode> nodes)
 	{
-		KVPairs<CSGNode, CSGMesh> meshes = new KVPairs<CSGNode, CSGMesh>();
+		return ProcessCSGNodes(new CSGContext(), root, nodes);
+	}
+
+	// Create meshes for a given number of nodes and perform CSG on these.
+	// The base meshes are cached and their planes registered in the context
+	public static KVPairs<CSGNode, CSGMesh> ProcessCSGNodes(
+			CSGContext context, CSGNode root, List<CSGNode> nodes)
+	{
+		KVPairs<CSGNode, CSGMesh> cachedBaseMeshes = context.BaseMeshes;
+		KVPairs<CSGNode, CSGMesh> meshes = new KVPairs<CSGNode, CSGMesh>(true);
+
+		// get the meshes of brushes from their templates or the mesh cache,
+		// building them in parallel if enabled. Branches are combined from
+		// their brushes on this thread, the plane registry is only touched in
+		// node order below
+		final BrushMeshCache meshCache = context.MeshCache;
+		List<Callable<CSGMesh>> buildTasks = new ArrayList<Callable<CSGMesh>>();
+		for (final CSGNode node : nodes)
+		{
+			if (node.NodeType == CSGNodeType.Brush
+					&& !cachedBaseMeshes.containsKey(node))
+			{
+				buildTasks.add(new Callable<CSGMesh>()
+				{
+					public CSGMesh call()
+					{
+						CSGMesh mesh = node.Template != null ? node.Template
+								.instantiate(node.Planes) : null;
+						return mesh != null ? mesh : meshCache.get(node.Planes);
+					}
+				});
+			}
+		}
+		Iterator<CSGMesh> builtMeshes = invokeAll(context, buildTasks)
+				.iterator();
 
 		// for all CSGNodes in nodes: buildMesh
 		for (CSGNode node : nodes)
@@ -323,11 +373,13 @@ public class CSGCategorization
 					List<CSGNode> childNodes = CSGUtility
 							.FindChildBrushes(node);
 					KVPairs<CSGNode, CSGMesh> brushMeshes = ProcessCSGNodes(
-							node, childNodes);
-					mesh = CSGMesh.Combine(node.Translation, brushMeshes);
+							context, node, childNodes);
+					mesh = CSGMesh.Combine(context, node.Translation,
+							brushMeshes);
 				} else
 				{
-					mesh = CSGMesh.CreateFromPlanes(node.Planes);
+					mesh = builtMeshes.next();
+					mesh.registerPlanes(context.Planes);
 				}
 
 				cachedBaseMeshes.put(node, mesh);
@@ -338,49 +390,129 @@ public class CSGCategorization
 
 			CSGMesh clonedMesh = mesh.Clone();
 			node.Bounds.Set(clonedMesh.Bounds);
+			node.Dop = new KDOP(clonedMesh.Dop);
 			meshes.put(node, clonedMesh);
 		}
 
 		// update bounds
 		CSGUtility.UpdateBounds(root);
 
+		// brushes the last evaluation of this tree categorized the same way
+		boolean brushesOnly = true;
+		for (CSGNode node : nodes)
+			brushesOnly &= node.NodeType == CSGNodeType.Brush;
+		KVPairs<CSGNode, CSGMesh> reusable = brushesOnly ? context.Categorizations
+				.findReusable(root)
+				: new KVPairs<CSGNode, CSGMesh>(true);
+
 		// for all above generated CSGMeshes: updateDelegate
-		for (CSGNode processedNode : meshes.keys())
+		// Every task only modifies its own mesh, the tree is read-only now
+		final CSGNode categorizationRoot = root;
+		List<Callable<CSGMesh>> categorizeTasks = new ArrayList<Callable<CSGMesh>>();
+		for (final CSGNode processedNode : meshes.keys())
 		{
-			CSGMesh processedMesh = meshes.get(processedNode);
+			CSGMesh reusedMesh = reusable.get(processedNode);
+			if (reusedMesh != null)
+			{
+				meshes.put(processedNode, reusedMesh.Clone());
+				continue;
+			}
+			final CSGMesh processedMesh = meshes.get(processedNode);
+			categorizeTasks.add(new Callable<CSGMesh>()
+			{
+				public CSGMesh call()
+				{
+					CategorizeMesh(categorizationRoot, processedNode, processedMesh);
+					return processedMesh;
+				}
+			});
+		}
+		invokeAll(context, categorizeTasks);
 
-			List<Polygon> inputPolygons = processedMesh.Polygons;
-			List<Polygon> insidePolygons = new ArrayList<Polygon>(0);
-			List<Polygon> outsidePolygons = new ArrayList<Polygon>(0);
-			List<Polygon> alignedPolygons = new ArrayList<Polygon>(0);
-			List<Polygon> reversedPolygons = new ArrayList<Polygon>(0);
+		if (brushesOnly)
+			context.Categorizations.store(root, meshes, reusable.size());
 
-			CSGCategorization.Categorize(processedNode, processedMesh, root,
-					inputPolygons, insidePolygons, alignedPolygons,
-					reversedPolygons, outsidePolygons);
+		return meshes;
+	}
 
-			for (Polygon polygon : insidePolygons)
-			{
-				polygon.Category = PolygonCategory.Inside;
-				polygon.Visible = false;
-			}
+	// Categorizes all polygons of the mesh of the processed node against the
+	// tree and sets their categories and visibility
+	static void CategorizeMesh(CSGNode root, CSGNode processedNode,
+			CSGMesh processedMesh)
+	{
+		IntList inputPolygons = new IntList(processedMesh.PolygonCount);
+		for (int i = 0; i < processedMesh.PolygonCount; i++)
+			inputPolygons.add(i);
+		IntList insidePolygons = new IntList();
+		IntList outsidePolygons = new IntList();
+		IntList alignedPolygons = new IntList();
+		IntList reversedPolygons = new IntList();
 
-			for (Polygon polygon : outsidePolygons)
-			{
-				polygon.Category = PolygonCategory.Outside;
-				polygon.Visible = false;
-			}
+		CSGCategorization.Categorize(processedNode, processedMesh, root,
+				inputPolygons, insidePolygons, alignedPolygons,
+				reversedPolygons, outsidePolygons);
+
+		for (int i = 0; i < insidePolygons.size(); i++)
+		{
+			int polygon = insidePolygons.get(i);
+			processedMesh.setCategory(polygon, PolygonCategory.Inside);
+			processedMesh.setVisible(polygon, false);
+		}
+
+		for (int i = 0; i < outsidePolygons.size(); i++)
+		{
+			int polygon = outsidePolygons.get(i);
+			processedMesh.setCategory(polygon, PolygonCategory.Outside);
+			processedMesh.setVisible(polygon, false);
+		}
+
+		for (int i = 0; i < alignedPolygons.size(); i++)
+			processedMesh.setCategory(alignedPolygons.get(i),
+					PolygonCategory.Aligned);
 
-			for (Polygon polygon : alignedPolygons)
-				polygon.Category = PolygonCategory.Aligned;
+		/* for inversion of reversed aligned polygons at root level of csg tree, see CSGMesh:Combine !! */
+		for (int i = 0; i < reversedPolygons.size(); i++)
+		{
+			processedMesh.setCategory(reversedPolygons.get(i),
+					PolygonCategory.ReverseAligned);
+		}
+	}
 
-			/* for inversion of reversed aligned polygons at root level of csg tree, see CSGMesh:Combine !! */
-			for (Polygon polygon : reversedPolygons)
+	// Runs the tasks on the executor if more than one thread is configured,
+	// otherwise on the calling thread. Results are returned in task order.
+	static <T> List<T> invokeAll(CSGContext context, List<Callable<T>> tasks)
+	{
+		List<T> results = new ArrayList<T>(tasks.size());
+		try
+		{
+			if (context.Threads <= 1 || tasks.size() <= 1)
+			{
+				for (Callable<T> task : tasks)
+					results.add(task.call());
+			} else
 			{
-				polygon.Category = PolygonCategory.ReverseAligned;
+				for (Future<T> future : context.getExecutor().invokeAll(tasks))
+					results.add(future.get());
 			}
+		} catch (ExecutionException e)
+		{
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			if (cause instanceof Error)
+				throw (Error) cause;
+			throw new IllegalStateException(cause);
+		} catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(e);
+		} catch (RuntimeException e)
+		{
+			throw e;
+		} catch (Exception e)
+		{
+			throw new IllegalStateException(e);
 		}
-
-		return meshes;
+		return results;
 	}
 }
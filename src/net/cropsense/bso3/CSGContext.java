@@ -0,0 +1,100 @@
+package net.cropsense.bso3;
+
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import de.grogra.imp3d.objects.Sphere;
+
+/**
+ * The state of the evaluation of CSG trees: tolerances, sampling of round
+ * primitives, caches and scratch objects. Every BSO owns its own context, so
+ * BSOs with different settings can be evaluated at the same time without
+ * affecting each other.
+ *
+ * A context must not be used by two evaluations at the same time. Settings
+ * are initialized from the defaults in VarsConstants.
+ *
+ */
+public class CSGContext
+{
+	public double PointOnLineTolerance = VarsConstants.PointOnLineTolerance;
+	public double DistanceEpsilonWelding = VarsConstants.DistanceEpsilonWelding;
+	public int PlanesSamplingSpheres = VarsConstants.PlanesSamplingSpheres;
+	public int PlanesSamplingCones = VarsConstants.PlanesSamplingCones;
+	public SphereSampling SphereSampling = VarsConstants.SphereSampling;
+	// sampling of single spheres, overriding SphereSampling
+	public final Map<Sphere, SphereSampling> SphereSamplings = new WeakHashMap<Sphere, SphereSampling>();
+	public int PlanesSamplingCylinders = VarsConstants.PlanesSamplingCylinders;
+	public int PlanesSamplingFrusta = VarsConstants.PlanesSamplingFrusta;
+	// maximum distance of the sampled from the real surface of round
+	// primitives in world units, the fixed plane counts are used if not > 0
+	public double MaxSamplingError = VarsConstants.MaxSamplingError;
+	public int MinPlanesSampling = VarsConstants.MinPlanesSampling;
+	public int MaxPlanesSampling = VarsConstants.MaxPlanesSampling;
+	// threads used by ProcessCSGNodes, 1 runs everything on the calling thread
+	public int Threads = VarsConstants.Threads;
+	// collect the boundary edges of the result for getBoundaryEgdesIMP3D
+	public boolean DebugBoundaries = VarsConstants.DebugBoundaries;
+
+	/* canonical ids of the planes of the meshes built in this context */
+	PlaneRegistry Planes = new PlaneRegistry();
+	/* meshes of brushes, by the values of their planes */
+	public BrushMeshCache MeshCache = BrushMeshCache.getShared();
+	/* meshes of brushes and branches, by node */
+	final KVPairs<CSGNode, CSGMesh> BaseMeshes = new KVPairs<CSGNode, CSGMesh>(
+			true);
+	/* categorized brush meshes of the last evaluation */
+	public final CategorizationCache Categorizations = new CategorizationCache();
+	/* scratch triangulator for converting the meshes */
+	final Triangulator3 Triangulator = new Triangulator3();
+
+	private ExecutorService executor;
+	private int executorThreads;
+
+	/**
+	 * Returns the distribution of the planes enclosing the given sphere, the
+	 * sphere's own if one was set in SphereSamplings, SphereSampling if not.
+	 */
+	public SphereSampling getSphereSampling(Sphere sphere)
+	{
+		SphereSampling sampling = SphereSamplings.get(sphere);
+		return sampling != null ? sampling : SphereSampling;
+	}
+
+	/**
+	 * Drops the meshes cached by node and the plane ids. The nodes of a CSG
+	 * tree are generated anew for every evaluation, so these are never reused
+	 * by a later evaluation. Brush meshes stay in the MeshCache.
+	 */
+	public void clearCaches()
+	{
+		BaseMeshes.clear();
+		Planes = new PlaneRegistry();
+	}
+
+	// Returns a pool of daemon threads of the configured size, replacing the
+	// pool when the configuration changed
+	synchronized ExecutorService getExecutor()
+	{
+		if (executor == null || executorThreads != Threads)
+		{
+			if (executor != null)
+				executor.shutdown();
+			executor = Executors.newFixedThreadPool(Threads,
+					new ThreadFactory()
+					{
+						public Thread newThread(Runnable runnable)
+						{
+							Thread thread = new Thread(runnable, "BSO3-CSG");
+							thread.setDaemon(true);
+							return thread;
+						}
+					});
+			executorThreads = Threads;
+		}
+		return executor;
+	}
+}
@@ -2,447 +2,545 @@ package net.cropsense.bso3;
 
 import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Arrays;
 import java.util.List;
 import java.util.PriorityQueue;
 
+import de.grogra.xl.util.IntList;
+
 /**
  * A class representing the geometry as a mesh from vertices and edges
  * It also defines filter functions to overcome possible gaps/holes in the
  * representation.
- * 
+ *
+ * The mesh is stored as struct of arrays: half-edge i is described by
+ * EdgeNext[i], EdgeTwin[i], EdgeVertex[i] and EdgePolygon[i], vertex i by the
+ * three coordinates starting at VertexCoords[3*i] and polygon i by the record
+ * starting at PolygonData[POLYGON_STRIDE*i] and its bounds starting at
+ * PolygonBounds[BOUNDS_STRIDE*i]. Half-edges, vertices and polygons are only
+ * referenced by their index.
+ *
+ * Clones share their arrays copy-on-write, so all modifications have to go
+ * through the mesh's methods. Planes are never modified once a mesh is
+ * created.
+ *
  * @author Patrick Kaster
  *
  */
 public class CSGMesh
 {
+	/* offsets into a packed polygon record */
+	static final int POLYGON_FIRST = 0;
+	static final int POLYGON_PLANE = 1;
+	static final int POLYGON_CATEGORY = 2;
+	static final int POLYGON_VISIBLE = 3;
+	static final int POLYGON_STRIDE = 4;
+
+	/* packed polygon bounds, MinX, MinY, MinZ, MaxX, MaxY, MaxZ */
+	static final int BOUNDS_STRIDE = 6;
+
+	private static final PolygonCategory[] CATEGORIES = PolygonCategory.values();
+
 	public AABB Bounds;
-	public List<Polygon> Polygons;
-	public List<HalfEdge> Edges;
-	public List<Vector3> Vertices;
+	/* tighter bounds of the same vertices, see KDOP */
+	public KDOP Dop;
 	public Plane[] Planes;
-	
-	public List<HalfEdge> boundaryEdges;
-	public List<HalfEdge> weldedEdges;
-	public List<Vector3> boundaryVertices;
 
-	public CSGMesh(Plane[] planes, List<Polygon> polygons,
-			List<HalfEdge> edges, List<Vector3> vertices, AABB bounds)
+	/* canonical ids of the planes in PlaneRegistry, null if not registered */
+	public int[] PlaneIds;
+	public PlaneRegistry PlaneRegistry;
+
+	public int[] EdgeNext;
+	public int[] EdgeTwin;
+	public int[] EdgeVertex;
+	public int[] EdgePolygon;
+	public int EdgeCount;
+
+	public double[] VertexCoords;
+	public int VertexCount;
+
+	public int[] PolygonData;
+	public double[] PolygonBounds;
+	public int PolygonCount;
+
+	public IntList boundaryEdges;
+
+	/* arrays shared with a clone, copied before the first write */
+	private boolean edgesShared;
+	private boolean verticesShared;
+	private boolean polygonsShared;
+
+	/* Intersect only queries the polygon tree for at least this many polygons */
+	static final int POLYGON_TREE_MIN_POLYGONS = 256;
+
+	/* lazily built polygon tree, shared with clones like the arrays */
+	private PolygonBVH polygonTree;
+	private boolean polygonTreeShared;
+	/* number of bounds changes of covered polygons since the last refit */
+	private int polygonTreeChanges;
+	/* per mesh marks for polygon tree queries */
+	private int[] polygonMarks;
+	private int polygonMarkStamp;
+
+	public CSGMesh(Plane[] planes, int edgeCapacity, int vertexCapacity,
+			int polygonCapacity, AABB bounds)
 	{
+		edgeCapacity = Math.max(edgeCapacity, 1);
+		vertexCapacity = Math.max(vertexCapacity, 1);
+		polygonCapacity = Math.max(polygonCapacity, 1);
+
 		this.Planes = planes;
-		this.Polygons = polygons;
-		this.Edges = edges;
-		this.Vertices = vertices;
+		this.EdgeNext = new int[edgeCapacity];
+		this.EdgeTwin = new int[edgeCapacity];
+		this.EdgeVertex = new int[edgeCapacity];
+		this.EdgePolygon = new int[edgeCapacity];
+		this.VertexCoords = new double[3 * vertexCapacity];
+		this.PolygonData = new int[POLYGON_STRIDE * polygonCapacity];
+		this.PolygonBounds = new double[BOUNDS_STRIDE * polygonCapacity];
 		this.Bounds = new AABB(bounds);
+		this.Dop = new KDOP();
 		/* debug !! */
-		this.boundaryEdges = new ArrayList<HalfEdge>();
-		//this.weldedEdges = new ArrayList<HalfEdge>();
-		//this.boundaryVertices = new ArrayList<Vector3>();
+		this.boundaryEdges = new IntList();
+	}
+
+	// Creates a copy-on-write view of the given mesh
+	private CSGMesh(CSGMesh other)
+	{
+		this.Planes = other.Planes;
+		this.PlaneIds = other.PlaneIds;
+		this.PlaneRegistry = other.PlaneRegistry;
+		this.EdgeNext = other.EdgeNext;
+		this.EdgeTwin = other.EdgeTwin;
+		this.EdgeVertex = other.EdgeVertex;
+		this.EdgePolygon = other.EdgePolygon;
+		this.EdgeCount = other.EdgeCount;
+		this.VertexCoords = other.VertexCoords;
+		this.VertexCount = other.VertexCount;
+		this.PolygonData = other.PolygonData;
+		this.PolygonBounds = other.PolygonBounds;
+		this.PolygonCount = other.PolygonCount;
+		this.Bounds = new AABB(other.Bounds);
+		this.Dop = new KDOP(other.Dop);
+		this.boundaryEdges = new IntList();
+
+		this.edgesShared = other.edgesShared = true;
+		this.verticesShared = other.verticesShared = true;
+		this.polygonsShared = other.polygonsShared = true;
+
+		this.polygonTree = other.polygonTree;
+		this.polygonTreeChanges = other.polygonTreeChanges;
+		if (polygonTree != null)
+			this.polygonTreeShared = other.polygonTreeShared = true;
 	}
 
-	// Creates a clone of the mesh
+	// Creates a clone of the mesh. The clone shares all arrays with this mesh
+	// until either of them writes to them, so brushes that categorization
+	// leaves untouched never copy their edges and vertices.
 	public CSGMesh Clone()
 	{
-		Plane[] newPlanes = new Plane[Planes.length];
-		for (int i = 0; i < Planes.length; i++)
-		{
-			Plane plane = Planes[i];
-			newPlanes[i] = new Plane(plane.A, plane.B, plane.C, plane.D);
-		}
-		List<Polygon> newPolygons = new ArrayList<Polygon>(Polygons.size());
-		for (Polygon polygon : Polygons)
-		{
-			Polygon newPolygon = new Polygon();
-			newPolygon.FirstIndex = polygon.FirstIndex;
-			newPolygon.Visible = polygon.Visible;
-			newPolygon.Category = polygon.Category;
-			newPolygon.PlaneIndex = polygon.PlaneIndex;
-			newPolygon.Bounds.Set(polygon.Bounds);
-
-			newPolygons.add(newPolygon);
-		}
+		// build the polygon tree once for all clones of a large mesh
+		if (polygonTree == null && PolygonCount >= POLYGON_TREE_MIN_POLYGONS)
+			polygonTree = new PolygonBVH(this);
+		return new CSGMesh(this);
+	}
 
-		List<HalfEdge> newEdges = new ArrayList<HalfEdge>(Edges.size());
-		for (HalfEdge edge : Edges)
+	// Returns the polygon tree, building it if there is none or too many
+	// polygons were added since it was built, and refitting it when too many
+	// polygon bounds changed.
+	PolygonBVH getPolygonTree()
+	{
+		if (polygonTree == null
+				|| PolygonCount - polygonTree.size() > polygonTree.size())
+		{
+			polygonTree = new PolygonBVH(this);
+			polygonTreeShared = false;
+			polygonTreeChanges = 0;
+		} else if (polygonTreeChanges > polygonTree.size() / 2)
 		{
-			HalfEdge newEdge = new HalfEdge();
-			newEdge.NextIndex = edge.NextIndex;
-			newEdge.PolygonIndex = edge.PolygonIndex;
-			newEdge.TwinIndex = edge.TwinIndex;
-			newEdge.VertexIndex = edge.VertexIndex;
-			newEdges.add(newEdge);
+			if (polygonTreeShared)
+			{
+				polygonTree = polygonTree.copy();
+				polygonTreeShared = false;
+			}
+			polygonTree.refit(this);
+			polygonTreeChanges = 0;
 		}
+		return polygonTree;
+	}
 
-		List<Vector3> newVertices = new ArrayList<Vector3>(Vertices.size());
-		for (Vector3 vertex : Vertices)
+	// Marks the polygons whose bounds may overlap the given bounds and
+	// returns the marks, polygons with marks[polygon] == polygonMarkStamp
+	// overlap. Polygons not covered by the tree are not marked.
+	private int[] markOverlappingPolygons(AABB bounds)
+	{
+		PolygonBVH tree = getPolygonTree();
+		if (polygonMarks == null || polygonMarks.length < tree.size())
 		{
-			Vector3 newVertex = new Vector3(vertex.X, vertex.Y, vertex.Z);
-			newVertices.add(newVertex);
+			polygonMarks = new int[Math.max(tree.size(), PolygonCount)];
+			polygonMarkStamp = 0;
 		}
+		tree.query(bounds, polygonMarks, ++polygonMarkStamp);
+		return polygonMarks;
+	}
 
-		AABB newBounds = new AABB(Bounds);
-		CSGMesh newMesh = new CSGMesh(newPlanes, newPolygons, newEdges,
-				newVertices, newBounds);
+	private void polygonBoundsChanged(int polygon)
+	{
+		if (polygonTree != null && polygon < polygonTree.size())
+			polygonTreeChanges++;
+	}
 
-		return newMesh;
+	// Registers the planes of the mesh, so Intersect can detect polygons that
+	// are (opposite) aligned with a cutting plane by comparing plane ids.
+	public void registerPlanes(PlaneRegistry registry)
+	{
+		int[] ids = new int[Planes.length];
+		for (int i = 0; i < Planes.length; i++)
+			ids[i] = registry.register(Planes[i]);
+		this.PlaneIds = ids;
+		this.PlaneRegistry = registry;
 	}
 
-	// Creates a mesh from a brush (set of planes)
-	static class EdgeIntersection
+	void ensureEdgesWritable()
 	{
-		public EdgeIntersection(HalfEdge edge, int planeIndexA, int planeIndexB)
+		if (edgesShared)
 		{
-
-			PlaneIndices[0] = planeIndexA;
-			PlaneIndices[1] = planeIndexB;
-
-			Edge = edge;
+			EdgeNext = Arrays.copyOf(EdgeNext, EdgeNext.length);
+			EdgeTwin = Arrays.copyOf(EdgeTwin, EdgeTwin.length);
+			EdgeVertex = Arrays.copyOf(EdgeVertex, EdgeVertex.length);
+			EdgePolygon = Arrays.copyOf(EdgePolygon, EdgePolygon.length);
+			edgesShared = false;
 		}
-
-		public int[] PlaneIndices = new int[2];
-		public HalfEdge Edge;
 	}
 
-	static class PointIntersection
+	void ensureVerticesWritable()
 	{
-		public PointIntersection(int vertexIndex, List<Integer> planes)
+		if (verticesShared)
 		{
-			VertexIndex = vertexIndex;
-			for (Integer plane : planes)
-				PlaneIndices.add(plane);
+			VertexCoords = Arrays.copyOf(VertexCoords, VertexCoords.length);
+			verticesShared = false;
 		}
-
-		public List<EdgeIntersection> Edges = new ArrayList<EdgeIntersection>();
-		public HashSet<Integer> PlaneIndices = new HashSet<Integer>();
-		public int VertexIndex;
 	}
 
-	public static CSGMesh CreateFromPlanes(Plane[] brushPlanes)
+	void ensurePolygonsWritable()
 	{
-		Plane[] planes = new Plane[brushPlanes.length];
-		for (int i = 0; i < brushPlanes.length; i++)
+		if (polygonsShared)
 		{
-			Plane plane = brushPlanes[i];
-			planes[i] = new Plane(plane.A, plane.B, plane.C, plane.D);
+			PolygonData = Arrays.copyOf(PolygonData, PolygonData.length);
+			PolygonBounds = Arrays.copyOf(PolygonBounds, PolygonBounds.length);
+			polygonsShared = false;
 		}
+	}
 
-		List<PointIntersection> pointIntersections = new ArrayList<PointIntersection>(
-				planes.length * planes.length);
-		List<Integer> intersectingPlanes = new ArrayList<Integer>();
-		List<Vector3> vertices = new ArrayList<Vector3>();
-		List<HalfEdge> edges = new ArrayList<HalfEdge>();
+	/**
+	 * appends a vertex to the mesh
+	 *
+	 * @return index of the new vertex
+	 */
+	public int addVertex(double x, double y, double z)
+	{
+		ensureVerticesWritable();
+		if (3 * (VertexCount + 1) > VertexCoords.length)
+			VertexCoords = Arrays.copyOf(VertexCoords, 2 * VertexCoords.length + 3);
+		int offset = 3 * VertexCount;
+		VertexCoords[offset] = x;
+		VertexCoords[offset + 1] = y;
+		VertexCoords[offset + 2] = z;
+		return VertexCount++;
+	}
 
-		// Find all point intersections where 3 (or more planes) intersect
-		for (int planeIndex1 = 0; planeIndex1 < planes.length - 2; planeIndex1++)
+	/**
+	 * appends a half-edge with all indices set to 0 to the mesh
+	 *
+	 * @return index of the new half-edge
+	 */
+	public int addEdge()
+	{
+		ensureEdgesWritable();
+		if (EdgeCount == EdgeNext.length)
 		{
-			Plane plane1 = planes[planeIndex1];
-			for (int planeIndex2 = planeIndex1 + 1; planeIndex2 < planes.length - 1; planeIndex2++)
-			{
-				Plane plane2 = planes[planeIndex2];
-				for (int planeIndex3 = planeIndex2 + 1; planeIndex3 < planes.length; planeIndex3++)
-				{
-					Plane plane3 = planes[planeIndex3];
-
-					// Calculate the intersection
-					Vector3 vertex = Plane.Intersection(plane1, plane2, plane3);
-
-					// Check if the intersection is valid
-					if (Double.isNaN(vertex.X) || Double.isNaN(vertex.Y)
-							|| Double.isNaN(vertex.Z)
-							|| Double.isInfinite(vertex.X)
-							|| Double.isInfinite(vertex.Y)
-							|| Double.isInfinite(vertex.Z))
-						continue;
-
-					intersectingPlanes.clear();
-					intersectingPlanes.add(planeIndex1);
-					intersectingPlanes.add(planeIndex2);
-					intersectingPlanes.add(planeIndex3);
-
-					SkipIntersection:
-					{
-						for (int planeIndex4 = 0; planeIndex4 < planes.length; planeIndex4++)
-						{
-							if (planeIndex4 == planeIndex1
-									|| planeIndex4 == planeIndex2
-									|| planeIndex4 == planeIndex3)
-								continue;
-
-							Plane plane4 = planes[planeIndex4];
-							PlaneSideResult side = plane4.OnSide(vertex);
-							if (side == PlaneSideResult.Intersects)
-							{
-								if (planeIndex4 < planeIndex3)
-									// Already found this vertex
-									break SkipIntersection;
-
-								// We've found another plane which goes trough
-								// our found intersection point
-								intersectingPlanes.add(planeIndex4);
-							} else if (side == PlaneSideResult.Outside)
-								// Intersection is outside of brush
-								break SkipIntersection;
-						}
-
-						Integer vertexIndex = vertices.size();
-						vertices.add(vertex);
-
-						// Add intersection point to our list
-						pointIntersections.add(new PointIntersection(
-								vertexIndex, intersectingPlanes));
-					}
-					// SkipIntersection:
-					// ;
-				}
-			}
+			int capacity = 2 * EdgeNext.length + 2;
+			EdgeNext = Arrays.copyOf(EdgeNext, capacity);
+			EdgeTwin = Arrays.copyOf(EdgeTwin, capacity);
+			EdgeVertex = Arrays.copyOf(EdgeVertex, capacity);
+			EdgePolygon = Arrays.copyOf(EdgePolygon, capacity);
 		}
+		int index = EdgeCount++;
+		EdgeNext[index] = 0;
+		EdgeTwin[index] = 0;
+		EdgeVertex[index] = 0;
+		EdgePolygon[index] = 0;
+		return index;
+	}
 
-		int[] foundPlanes = new int[2];
-		// Find all our intersection edges which are formed by a pair of planes
-		// (this could probably be done inside the previous loop)
-		for (int i = 0; i < pointIntersections.size(); i++)
+	/**
+	 * appends a polygon with empty bounds to the mesh
+	 *
+	 * @return index of the new polygon
+	 */
+	public int addPolygon(int firstIndex, int planeIndex,
+			PolygonCategory category, boolean visible)
+	{
+		ensurePolygonsWritable();
+		if (POLYGON_STRIDE * (PolygonCount + 1) > PolygonData.length)
 		{
-			PointIntersection pointIntersectionA = pointIntersections.get(i);
-			for (int j = i + 1; j < pointIntersections.size(); j++)
-			{
-				PointIntersection pointIntersectionB = pointIntersections
-						.get(j);
-				HashSet<Integer> planesIndicesA = pointIntersectionA.PlaneIndices;
-				HashSet<Integer> planesIndicesB = pointIntersectionB.PlaneIndices;
+			int capacity = 2 * (PolygonData.length / POLYGON_STRIDE) + 1;
+			PolygonData = Arrays.copyOf(PolygonData, POLYGON_STRIDE * capacity);
+			PolygonBounds = Arrays.copyOf(PolygonBounds, BOUNDS_STRIDE
+					* capacity);
+		}
+		int index = PolygonCount++;
+		int offset = POLYGON_STRIDE * index;
+		PolygonData[offset + POLYGON_FIRST] = firstIndex;
+		PolygonData[offset + POLYGON_PLANE] = planeIndex;
+		PolygonData[offset + POLYGON_CATEGORY] = category.ordinal();
+		PolygonData[offset + POLYGON_VISIBLE] = visible ? 1 : 0;
+		clearPolygonBounds(index);
+		return index;
+	}
 
-				int foundPlaneIndex = 0;
-				for (Integer currentPlaneIndex : planesIndicesA)
-				{
-					if (!planesIndicesB.contains(currentPlaneIndex))
-						continue;
+	public Vector3 getVertex(int vertex)
+	{
+		int offset = 3 * vertex;
+		return new Vector3(VertexCoords[offset], VertexCoords[offset + 1],
+				VertexCoords[offset + 2]);
+	}
 
-					foundPlanes[foundPlaneIndex] = currentPlaneIndex;
-					foundPlaneIndex++;
+	public void setVertex(int vertex, double x, double y, double z)
+	{
+		ensureVerticesWritable();
+		int offset = 3 * vertex;
+		VertexCoords[offset] = x;
+		VertexCoords[offset + 1] = y;
+		VertexCoords[offset + 2] = z;
+	}
 
-					if (foundPlaneIndex == 2)
-						break;
-				}
+	public int getFirstIndex(int polygon)
+	{
+		return PolygonData[POLYGON_STRIDE * polygon + POLYGON_FIRST];
+	}
 
-				// If foundPlaneIndex is 0 or 1 then either this combination
-				// does not exist,
-				// or only goes trough one point
-				if (foundPlaneIndex < 2)
-					continue;
+	public void setFirstIndex(int polygon, int firstIndex)
+	{
+		ensurePolygonsWritable();
+		PolygonData[POLYGON_STRIDE * polygon + POLYGON_FIRST] = firstIndex;
+	}
 
-				// Create our found intersection edge
-				HalfEdge halfEdgeA = new HalfEdge();
-				int halfEdgeAIndex = edges.size();
-				edges.add(halfEdgeA);
+	public int getPlaneIndex(int polygon)
+	{
+		return PolygonData[POLYGON_STRIDE * polygon + POLYGON_PLANE];
+	}
 
-				HalfEdge halfEdgeB = new HalfEdge();
-				int halfEdgeBIndex = edges.size();
-				edges.add(halfEdgeB);
+	public PolygonCategory getCategory(int polygon)
+	{
+		return CATEGORIES[PolygonData[POLYGON_STRIDE * polygon
+				+ POLYGON_CATEGORY]];
+	}
 
-				halfEdgeA.TwinIndex = halfEdgeBIndex;
-				halfEdgeB.TwinIndex = halfEdgeAIndex;
+	public void setCategory(int polygon, PolygonCategory category)
+	{
+		ensurePolygonsWritable();
+		PolygonData[POLYGON_STRIDE * polygon + POLYGON_CATEGORY] = category
+				.ordinal();
+	}
 
-				halfEdgeA.VertexIndex = pointIntersectionA.VertexIndex;
-				halfEdgeB.VertexIndex = pointIntersectionB.VertexIndex;
+	public boolean isVisible(int polygon)
+	{
+		return PolygonData[POLYGON_STRIDE * polygon + POLYGON_VISIBLE] != 0;
+	}
 
-				// Add it to our points
-				pointIntersectionA.Edges.add(new EdgeIntersection(halfEdgeA,
-						foundPlanes[0], foundPlanes[1]));
-				pointIntersectionB.Edges.add(new EdgeIntersection(halfEdgeB,
-						foundPlanes[0], foundPlanes[1]));
-			}
-		}
+	public void setVisible(int polygon, boolean visible)
+	{
+		ensurePolygonsWritable();
+		PolygonData[POLYGON_STRIDE * polygon + POLYGON_VISIBLE] = visible ? 1
+				: 0;
+	}
 
-		List<Polygon> polygons = new ArrayList<Polygon>();
-		for (int i = 0; i < planes.length; i++)
+	void clearPolygonBounds(int polygon)
+	{
+		ensurePolygonsWritable();
+		polygonBoundsChanged(polygon);
+		int offset = BOUNDS_STRIDE * polygon;
+		PolygonBounds[offset] = Double.POSITIVE_INFINITY;
+		PolygonBounds[offset + 1] = Double.POSITIVE_INFINITY;
+		PolygonBounds[offset + 2] = Double.POSITIVE_INFINITY;
+		PolygonBounds[offset + 3] = Double.NEGATIVE_INFINITY;
+		PolygonBounds[offset + 4] = Double.NEGATIVE_INFINITY;
+		PolygonBounds[offset + 5] = Double.NEGATIVE_INFINITY;
+	}
+
+	void addToPolygonBounds(int polygon, int vertex)
+	{
+		ensurePolygonsWritable();
+		int offset = BOUNDS_STRIDE * polygon;
+		int vertexOffset = 3 * vertex;
+		for (int axis = 0; axis < 3; axis++)
 		{
-			Polygon polygon = new Polygon();
-			polygon.PlaneIndex = i;
-			polygons.add(polygon);
+			double value = VertexCoords[vertexOffset + axis];
+			PolygonBounds[offset + axis] = Math.min(PolygonBounds[offset
+					+ axis], value);
+			PolygonBounds[offset + 3 + axis] = Math.max(PolygonBounds[offset
+					+ 3 + axis], value);
 		}
+	}
 
-		AABB bounds = new AABB();
-		Vector3 direction = new Vector3();
-		for (int i = pointIntersections.size() - 1; i >= 0; i--)
+	/**
+	 * recalculates the bounds of a polygon from the vertices of its half-edge
+	 * loop
+	 */
+	void updatePolygonBounds(int polygon)
+	{
+		clearPolygonBounds(polygon);
+		int first = getFirstIndex(polygon);
+		int iterator = first;
+		do
 		{
-			PointIntersection pointIntersection = pointIntersections.get(i);
-			List<EdgeIntersection> pointEdges = pointIntersection.Edges;
-
-			// Make sure that we have at least 2 edges ...
-			// This may happen when a plane only intersects at a single edge.
-			if (pointEdges.size() <= 2)
-			{
-				pointIntersections.remove(i);
-				continue;
-			}
-
-			int vertexIndex = pointIntersection.VertexIndex;
-			Vector3 vertex = vertices.get(vertexIndex);
-
-			for (int j = 0; j < pointEdges.size() - 1; j++)
-			{
-				EdgeIntersection edge1 = pointEdges.get(j);
-				for (int k = j + 1; k < pointEdges.size(); k++)
-				{
-					EdgeIntersection edge2 = pointEdges.get(k);
-
-					int planeIndex1 = -1;
-					int planeIndex2 = -1;
-
-					// Determine if and which of our 2 planes are identical
-					if (edge1.PlaneIndices[0] == edge2.PlaneIndices[0])
-					{
-						planeIndex1 = 0;
-						planeIndex2 = 0;
-					} else if (edge1.PlaneIndices[0] == edge2.PlaneIndices[1])
-					{
-						planeIndex1 = 0;
-						planeIndex2 = 1;
-					} else if (edge1.PlaneIndices[1] == edge2.PlaneIndices[0])
-					{
-						planeIndex1 = 1;
-						planeIndex2 = 0;
-					} else if (edge1.PlaneIndices[1] == edge2.PlaneIndices[1])
-					{
-						planeIndex1 = 1;
-						planeIndex2 = 1;
-					} else
-						continue;
-
-					HalfEdge ingoing;
-					HalfEdge outgoing;
-					int outgoingIndex;
-
-					Plane shared_plane = planes[edge1.PlaneIndices[planeIndex1]];
-					Plane edge1_plane = planes[edge1.PlaneIndices[1 - planeIndex1]];
-					Plane edge2_plane = planes[edge2.PlaneIndices[1 - planeIndex2]];
-
-					direction = Vector3.CrossProduct(shared_plane.Normal(),
-							edge1_plane.Normal());
-
-					// Determine the orientation of our two edges to determine
-					// which edge is in-going, and which one is out-going
-					if (Vector3.DotProduct(direction, edge2_plane.Normal()) < 0)
-					{
-						ingoing = edge2.Edge;
-						outgoingIndex = edge1.Edge.TwinIndex;
-						outgoing = edges.get(outgoingIndex);
-					} else
-					{
-						ingoing = edge1.Edge;
-						outgoingIndex = edge2.Edge.TwinIndex;
-						outgoing = edges.get(outgoingIndex);
-					}
-
-					// Link the out-going half-edge to the in-going half-edge
-					ingoing.NextIndex = outgoingIndex;
-
-					// Add reference to polygon to half-edge, and make sure our
-					// polygon has a reference to a half-edge
-					// Since a half-edge, in this case, serves as a circular
-					// linked list this just works.
-					int polygonIndex = edge1.PlaneIndices[planeIndex1];
-
-					ingoing.PolygonIndex = polygonIndex;
-					outgoing.PolygonIndex = polygonIndex;
+			addToPolygonBounds(polygon, EdgeVertex[iterator]);
+			iterator = EdgeNext[iterator];
+		} while (iterator != first);
+	}
 
-					Polygon polygon = polygons.get(polygonIndex);
-					polygon.FirstIndex = outgoingIndex;
-					polygon.Bounds.Add(vertex.X, vertex.Y, vertex.Z);
-				}
-			}
+	/**
+	 * copies the bounds of a polygon into the given AABB
+	 */
+	public void getPolygonBounds(int polygon, AABB result)
+	{
+		int offset = BOUNDS_STRIDE * polygon;
+		result.MinX = PolygonBounds[offset];
+		result.MinY = PolygonBounds[offset + 1];
+		result.MinZ = PolygonBounds[offset + 2];
+		result.MaxX = PolygonBounds[offset + 3];
+		result.MaxY = PolygonBounds[offset + 4];
+		result.MaxZ = PolygonBounds[offset + 5];
+	}
 
-			// Add the intersection point to the area of our bounding box
-			bounds.Add(vertex.X, vertex.Y, vertex.Z);
-		}
+	void setPolygonBounds(int polygon, AABB bounds)
+	{
+		ensurePolygonsWritable();
+		polygonBoundsChanged(polygon);
+		int offset = BOUNDS_STRIDE * polygon;
+		PolygonBounds[offset] = bounds.MinX;
+		PolygonBounds[offset + 1] = bounds.MinY;
+		PolygonBounds[offset + 2] = bounds.MinZ;
+		PolygonBounds[offset + 3] = bounds.MaxX;
+		PolygonBounds[offset + 4] = bounds.MaxY;
+		PolygonBounds[offset + 5] = bounds.MaxZ;
+	}
 
-		return new CSGMesh(planes, polygons, edges, vertices, bounds);
+	// Creates a mesh from a brush (set of planes), polygon i lies on plane i
+	public static CSGMesh CreateFromPlanes(Plane[] brushPlanes)
+	{
+		return ConvexBrushBuilder.build(brushPlanes);
 	}
 
-	// Splits a half edge
-	HalfEdge EdgeSplit(HalfEdge edge, Vector3 vertex)
+	// Splits a half edge, the new vertex is appended to the mesh
+	int EdgeSplit(int edge, double x, double y, double z)
 	{
 		/*
 		 * original:
-		 * 
+		 *
 		 * edge<====================== ---------------------->* twin
-		 * 
+		 *
 		 * split:
-		 * 
+		 *
 		 * newEdge thisEdge<=========*<=========== --------->*----------->*
 		 * thisTwin newTwin
 		 */
 
-		HalfEdge thisEdge = edge;
-		int thisTwinIndex = edge.TwinIndex;
-		HalfEdge thisTwin = Edges.get(thisTwinIndex);
-		int thisEdgeIndex = thisTwin.TwinIndex;
+		ensureEdgesWritable();
 
-		HalfEdge newEdge = new HalfEdge();
-		int newEdgeIndex = Edges.size();
+		int thisEdge = edge;
+		int thisTwin = EdgeTwin[edge];
 
-		HalfEdge newTwin = new HalfEdge();
-		int newTwinIndex = newEdgeIndex + 1;
-		int vertexIndex = Vertices.size();
+		/* an edge on an open boundary has no twin to split along */
+		if (thisTwin == -1)
+		{
+			int newEdge = addEdge();
+			int vertexIndex = addVertex(x, y, z);
+
+			EdgePolygon[newEdge] = EdgePolygon[thisEdge];
+			EdgeVertex[newEdge] = EdgeVertex[thisEdge];
+			EdgeVertex[thisEdge] = vertexIndex;
+			EdgeNext[newEdge] = EdgeNext[thisEdge];
+			EdgeNext[thisEdge] = newEdge;
+			EdgeTwin[newEdge] = -1;
+			return newEdge;
+		}
+
+		int newEdge = addEdge();
+		int newTwin = addEdge();
+		int vertexIndex = addVertex(x, y, z);
 
-		newEdge.PolygonIndex = thisEdge.PolygonIndex;
-		newTwin.PolygonIndex = thisTwin.PolygonIndex;
+		EdgePolygon[newEdge] = EdgePolygon[thisEdge];
+		EdgePolygon[newTwin] = EdgePolygon[thisTwin];
 
-		newEdge.VertexIndex = thisEdge.VertexIndex;
-		thisEdge.VertexIndex = vertexIndex;
+		EdgeVertex[newEdge] = EdgeVertex[thisEdge];
+		EdgeVertex[thisEdge] = vertexIndex;
 
-		newTwin.VertexIndex = thisTwin.VertexIndex;
-		thisTwin.VertexIndex = vertexIndex;
+		EdgeVertex[newTwin] = EdgeVertex[thisTwin];
+		EdgeVertex[thisTwin] = vertexIndex;
 
-		newEdge.NextIndex = thisEdge.NextIndex;
-		thisEdge.NextIndex = newEdgeIndex;
+		EdgeNext[newEdge] = EdgeNext[thisEdge];
+		EdgeNext[thisEdge] = newEdge;
 
-		newTwin.NextIndex = thisTwin.NextIndex;
-		thisTwin.NextIndex = newTwinIndex;
+		EdgeNext[newTwin] = EdgeNext[thisTwin];
+		EdgeNext[thisTwin] = newTwin;
 
-		newEdge.TwinIndex = thisTwinIndex;
-		thisTwin.TwinIndex = newEdgeIndex;
+		EdgeTwin[newEdge] = thisTwin;
+		EdgeTwin[thisTwin] = newEdge;
 
-		thisEdge.TwinIndex = newTwinIndex;
-		newTwin.TwinIndex = thisEdgeIndex;
+		EdgeTwin[thisEdge] = newTwin;
+		EdgeTwin[newTwin] = thisEdge;
 
-		Edges.add(newEdge);
-		Edges.add(newTwin);
-		Vertices.add(vertex);
 		return newEdge;
 	}
 
+	// Splits a half edge at the given vertex position
+	int EdgeSplit(int edge, Vector3 vertex)
+	{
+		return EdgeSplit(edge, vertex.X, vertex.Y, vertex.Z);
+	}
+
+	private double distance(Plane plane, int vertex)
+	{
+		int offset = 3 * vertex;
+		return plane.Distance(VertexCoords[offset], VertexCoords[offset + 1],
+				VertexCoords[offset + 2]);
+	}
+
 	// Splits a polygon into two pieces, or categorizes it as outside, inside or
 	// aligned
+	// When the polygon is split, the outside piece is appended to the mesh as
+	// polygon PolygonCount - 1.
 	// Note: This method is not optimized! Code is simplified for clarity!
 	// for example: Plane.Distance / Plane.OnSide should be inlined manually and
 	// shouldn't use enums, but floating point values directly!
 	public PolygonSplitResult PolygonSplit(Plane cuttingPlane,
-			Vector3 translation, Polygon inputPolygon, Polygon outsidePolygon)
+			Vector3 translation, int inputPolygon)
 	{
-		HalfEdge prev = Edges.get(inputPolygon.FirstIndex);
-		HalfEdge current = Edges.get(prev.NextIndex);
-		HalfEdge next = Edges.get(current.NextIndex);
-		HalfEdge last = next;
-		HalfEdge enterEdge = null;
-		HalfEdge exitEdge = null;
-
-		Vector3 prevVertex = Vertices.get(prev.VertexIndex);
+		int prev = getFirstIndex(inputPolygon);
+		int current = EdgeNext[prev];
+		int next = EdgeNext[current];
+		int last = next;
+		int enterEdge = -1;
+		int exitEdge = -1;
+
+		int prevVertex = EdgeVertex[prev];
 		// distance to previous vertex
-		double prevDistance = cuttingPlane.Distance(prevVertex);
+		double prevDistance = distance(cuttingPlane, prevVertex);
 		// side of plane of previous vertex
 		PlaneSideResult prevSide = Plane.OnSide(prevDistance);
 
-		Vector3 currentVertex = Vertices.get(current.VertexIndex);
+		int currentVertex = EdgeVertex[current];
 		// distance to current vertex
-		double currentDistance = cuttingPlane.Distance(currentVertex);
+		double currentDistance = distance(cuttingPlane, currentVertex);
 		// side of plane of current vertex
 		PlaneSideResult currentSide = Plane.OnSide(currentDistance);
 
 		do // while (next != last)
 		{
-			Vector3 nextVertex = Vertices.get(next.VertexIndex);
+			int nextVertex = EdgeVertex[next];
 			// distance to next vertex
-			double nextDistance = cuttingPlane.Distance(nextVertex);
+			double nextDistance = distance(cuttingPlane, nextVertex);
 			// side of plane of next vertex
 			PlaneSideResult nextSide = Plane.OnSide(nextDistance);
 
@@ -456,10 +554,18 @@ public class CSGMesh
 					{
 						// Calculate intersection of edge with plane split the
 						// edge into two, inserting the new vertex
-						Vector3 newVertex = Plane.Intersection(prevVertex,
-								currentVertex, prevDistance, currentDistance);
-						HalfEdge newEdge = EdgeSplit(current, newVertex);
-					
+						double delta = currentDistance
+								/ (currentDistance - prevDistance);
+						int prevOffset = 3 * prevVertex;
+						int currentOffset = 3 * currentVertex;
+						double x = VertexCoords[currentOffset] - delta
+								* (VertexCoords[currentOffset] - VertexCoords[prevOffset]);
+						double y = VertexCoords[currentOffset + 1] - delta
+								* (VertexCoords[currentOffset + 1] - VertexCoords[prevOffset + 1]);
+						double z = VertexCoords[currentOffset + 2] - delta
+								* (VertexCoords[currentOffset + 2] - VertexCoords[prevOffset + 2]);
+						EdgeSplit(current, x, y, z);
+
 						// prev:inside - current:outside - next:??
 						if (prevSide == PlaneSideResult.Inside)
 						{
@@ -493,17 +599,17 @@ public class CSGMesh
 						}
 
 						prevDistance = 0;
-						prev = Edges.get(prev.NextIndex);
+						prev = EdgeNext[prev];
 						prevSide = PlaneSideResult.Intersects;
 
-						if (exitEdge != null && enterEdge != null)
+						if (exitEdge != -1 && enterEdge != -1)
 							break;
 
-						current = Edges.get(prev.NextIndex);
-						currentVertex = Vertices.get(current.VertexIndex);
+						current = EdgeNext[prev];
+						currentVertex = EdgeVertex[current];
 
-						next = Edges.get(current.NextIndex);
-						nextVertex = Vertices.get(next.VertexIndex);
+						next = EdgeNext[current];
+						nextVertex = EdgeVertex[next];
 					}
 				} else
 				// prev:?? - current:intersects - next:??
@@ -546,7 +652,7 @@ public class CSGMesh
 							//
 
 							prevSide = PlaneSideResult.Inside;
-							enterEdge = exitEdge = null;
+							enterEdge = exitEdge = -1;
 							break;
 						}
 						// prev:outside - current:intersects -
@@ -579,7 +685,7 @@ public class CSGMesh
 							//
 
 							prevSide = PlaneSideResult.Outside;
-							enterEdge = exitEdge = null;
+							enterEdge = exitEdge = -1;
 							break;
 						}
 					}
@@ -601,7 +707,7 @@ public class CSGMesh
 							// inside
 
 							exitEdge = current;
-							if (enterEdge != null)
+							if (enterEdge != -1)
 								break;
 						}
 						// prev:outside - current:intersects - next:inside
@@ -618,7 +724,7 @@ public class CSGMesh
 							// inside
 
 							enterEdge = current;
-							if (exitEdge != null)
+							if (exitEdge != -1)
 								break;
 						}
 					}
@@ -627,7 +733,7 @@ public class CSGMesh
 
 			prev = current;
 			current = next;
-			next = Edges.get(next.NextIndex);
+			next = EdgeNext[next];
 
 			prevDistance = currentDistance;
 			currentDistance = nextDistance;
@@ -639,14 +745,14 @@ public class CSGMesh
 
 		// We should never have only one edge crossing the plane ..
 		// Debug.Assert((enterEdge == null) == (exitEdge == null));
-		if (!((enterEdge == null) == (exitEdge == null)))
+		if (!((enterEdge == -1) == (exitEdge == -1)))
 		{
 			throw new IllegalStateException();
 		}
 
 		// Check if we have an edge that exits and an edge that enters the plane
 		// and split the polygon into two if we do
-		if (enterEdge != null && exitEdge != null)
+		if (enterEdge != -1 && exitEdge != -1)
 		{
 			// enter .
 			// .
@@ -659,67 +765,47 @@ public class CSGMesh
 			// .
 			// . exit
 
-			// outsidePolygon = new Polygon();
-			int outsidePolygonIndex = this.Polygons.size();
-			this.Polygons.add(outsidePolygon);
-
-			HalfEdge outsideEdge = new HalfEdge();
-			int outsideEdgeIndex = Edges.size();
-
-			HalfEdge insideEdge = new HalfEdge();
-			int insideEdgeIndex = outsideEdgeIndex + 1;
+			ensureEdgesWritable();
+			int outsidePolygon = addPolygon(-1, getPlaneIndex(inputPolygon),
+					getCategory(inputPolygon), isVisible(inputPolygon));
 
-			outsideEdge.TwinIndex = insideEdgeIndex;
-			insideEdge.TwinIndex = outsideEdgeIndex;
+			int outsideEdge = addEdge();
+			int insideEdge = addEdge();
 
-			// insideEdge.PolygonIndex = inputPolygonIndex;// index does not
-			// change
-			outsideEdge.PolygonIndex = outsidePolygonIndex;
+			EdgeTwin[outsideEdge] = insideEdge;
+			EdgeTwin[insideEdge] = outsideEdge;
 
-			outsideEdge.VertexIndex = exitEdge.VertexIndex;
-			insideEdge.VertexIndex = enterEdge.VertexIndex;
+			EdgePolygon[insideEdge] = inputPolygon;
+			EdgePolygon[outsideEdge] = outsidePolygon;
 
-			outsideEdge.NextIndex = exitEdge.NextIndex;
-			insideEdge.NextIndex = enterEdge.NextIndex;
+			EdgeVertex[outsideEdge] = EdgeVertex[exitEdge];
+			EdgeVertex[insideEdge] = EdgeVertex[enterEdge];
 
-			exitEdge.NextIndex = insideEdgeIndex;
-			enterEdge.NextIndex = outsideEdgeIndex;
+			EdgeNext[outsideEdge] = EdgeNext[exitEdge];
+			EdgeNext[insideEdge] = EdgeNext[enterEdge];
 
-			outsidePolygon.FirstIndex = outsideEdgeIndex;
-			inputPolygon.FirstIndex = insideEdgeIndex;
+			EdgeNext[exitEdge] = insideEdge;
+			EdgeNext[enterEdge] = outsideEdge;
 
-			outsidePolygon.Visible = inputPolygon.Visible;
-			outsidePolygon.Category = inputPolygon.Category;
-			outsidePolygon.PlaneIndex = inputPolygon.PlaneIndex;
-
-			Edges.add(outsideEdge);
-			Edges.add(insideEdge);
+			setFirstIndex(outsidePolygon, outsideEdge);
+			setFirstIndex(inputPolygon, insideEdge);
 
 			// calculate the bounds of the polygons
-			outsidePolygon.Bounds.Clear();
-			HalfEdge first = Edges.get(outsidePolygon.FirstIndex);
-			HalfEdge iterator = first;
+			clearPolygonBounds(outsidePolygon);
+			int first = outsideEdge;
+			int iterator = first;
 			do
 			{
-				outsidePolygon.Bounds.Add(Vertices.get(iterator.VertexIndex));
-				iterator.PolygonIndex = outsidePolygonIndex;
-				iterator = Edges.get(iterator.NextIndex);
+				addToPolygonBounds(outsidePolygon, EdgeVertex[iterator]);
+				EdgePolygon[iterator] = outsidePolygon;
+				iterator = EdgeNext[iterator];
 			} while (iterator != first);
 
-			inputPolygon.Bounds.Clear();
-			first = Edges.get(inputPolygon.FirstIndex);
-			iterator = first;
-			do
-			{
-				inputPolygon.Bounds.Add(Vertices.get(iterator.VertexIndex));
-				iterator = Edges.get(iterator.NextIndex);
-			} while (iterator != first);
+			updatePolygonBounds(inputPolygon);
 
 			return PolygonSplitResult.Split;
 		} else
 		{
-			// outsidePolygon = null;
-			// Polygon.counter--;
 			switch (prevSide)
 			{
 			case Inside:
@@ -729,9 +815,10 @@ public class CSGMesh
 			default:
 			case Intersects:
 			{
-				Plane polygonPlane = Planes[inputPolygon.PlaneIndex];
-				Double result = Vector3.DotProduct(polygonPlane.Normal(),
-						cuttingPlane.Normal());
+				Plane polygonPlane = Planes[getPlaneIndex(inputPolygon)];
+				double result = (polygonPlane.A * cuttingPlane.A)
+						+ (polygonPlane.B * cuttingPlane.B)
+						+ (polygonPlane.C * cuttingPlane.C);
 				if (result > 0)
 					return PolygonSplitResult.PlaneAligned;
 				else
@@ -745,16 +832,15 @@ public class CSGMesh
 	public void Intersect(AABB cuttingNodeBounds, Plane[] cuttingNodePlanes,
 			Vector3 cuttingNodeTranslation, Vector3 inputPolygonTranslation,
 
-			List<Polygon> inputPolygons,
+			IntList inputPolygons,
 
-			List<Polygon> inside, List<Polygon> aligned,
-			List<Polygon> revAligned, List<Polygon> outside)
+			IntList inside, IntList aligned,
+			IntList revAligned, IntList outside)
 	{
-		// PolygonSplitResult[] categories = new
-		// PolygonSplitResult[cuttingNodePlanes.length];
 		Plane[] translatedPlanes = new Plane[cuttingNodePlanes.length];
 		Vector3 translation = Vector3.Subtract(cuttingNodeTranslation,
 				inputPolygonTranslation);
+		Vector3 negatedTranslation = translation.Negated();
 
 		// translate the planes we cut our polygons with so that they're located
 		// at the same
@@ -764,30 +850,89 @@ public class CSGMesh
 			translatedPlanes[i] = Plane.Translated(cuttingNodePlanes[i],
 					translation);
 
-		// List<Vector3> vertices = this.Vertices;
-		// List<HalfEdge> edges = this.Edges;
-		// Plane[] planes = this.Planes;
+		// canonical ids of the cutting planes, a polygon whose plane has the
+		// same (or the opposite) id is aligned if its vertices lie on the plane
+		int[] cuttingPlaneIds = null;
+		if (PlaneIds != null)
+		{
+			cuttingPlaneIds = new int[translatedPlanes.length];
+			for (int i = 0; i < translatedPlanes.length; i++)
+				cuttingPlaneIds[i] = PlaneRegistry.find(translatedPlanes[i]);
+		}
+
+		// let the polygon tree find the polygons that can overlap the
+		// cutting node, all others are outside
+		int[] overlapping = null;
+		int coveredPolygons = 0;
+		if (inputPolygons.size() >= POLYGON_TREE_MIN_POLYGONS)
+		{
+			overlapping = markOverlappingPolygons(cuttingNodeBounds
+					.Translated(translation));
+			coveredPolygons = polygonTree.size();
+		}
+
+		AABB bounds = new AABB();
+		double[] packedVertices = new double[3 * 16];
+		int[] sideMasks = new int[translatedPlanes.length];
 		for (int i = inputPolygons.size() - 1; i >= 0; i--)
 		{
-			Polygon inputPolygon = inputPolygons.get(i);
-			if (inputPolygon.FirstIndex == -1)
+			int inputPolygon = inputPolygons.get(i);
+			if (getFirstIndex(inputPolygon) == -1)
 				continue;
 
-			AABB bounds = inputPolygon.Bounds;
+			if (inputPolygon < coveredPolygons
+					&& overlapping[inputPolygon] != polygonMarkStamp)
+			{
+				outside.add(inputPolygon);
+				continue;
+			}
+
+			getPolygonBounds(inputPolygon, bounds);
 			PolygonSplitResult finalResult = PolygonSplitResult.CompletelyInside;
+			int polygonPlaneId = -1;
+			int oppositePlaneId = -1;
+			if (cuttingPlaneIds != null)
+			{
+				polygonPlaneId = PlaneIds[getPlaneIndex(inputPolygon)];
+				oppositePlaneId = PlaneRegistry.opposite(polygonPlaneId);
+			}
 
 			// A quick check if the polygon lies outside the planes we're
 			// cutting our polygons with.
 			if (!AABB.IsOutside(cuttingNodeBounds, translation, bounds))
 			{
+				// classify all vertices against all cutting planes at once,
+				// a polygon in front of any of them is outside before we split it
+				int vertexCount = 0;
+				int firstEdge = getFirstIndex(inputPolygon);
+				int iterator = firstEdge;
+				do
+				{
+					if (3 * vertexCount + 3 > packedVertices.length)
+						packedVertices = Arrays.copyOf(packedVertices,
+								2 * packedVertices.length);
+					int vertexOffset = 3 * EdgeVertex[iterator];
+					packedVertices[3 * vertexCount] = VertexCoords[vertexOffset];
+					packedVertices[3 * vertexCount + 1] = VertexCoords[vertexOffset + 1];
+					packedVertices[3 * vertexCount + 2] = VertexCoords[vertexOffset + 2];
+					vertexCount++;
+					iterator = EdgeNext[iterator];
+				} while (iterator != firstEdge);
+
+				if (PlaneSideKernel.classify(packedVertices, vertexCount,
+						translatedPlanes, sideMasks) != -1)
+				{
+					outside.add(inputPolygon);
+					continue;
+				}
+
 				PolygonSplitResult intermediateResult;
 				for (int otherIndex = 0; otherIndex < translatedPlanes.length; otherIndex++)
 				{
-					Polygon outsidePolygon = new Polygon();
 					Plane translatedCuttingPlane = translatedPlanes[otherIndex];
 
 					PlaneSideResult side = cuttingNodePlanes[otherIndex]
-							.OnSide(bounds, translation.Negated());
+							.OnSide(bounds, negatedTranslation);
 					if (side == PlaneSideResult.Outside)
 					{
 						finalResult = PolygonSplitResult.CompletelyOutside;
@@ -795,10 +940,23 @@ public class CSGMesh
 					} else if (side == PlaneSideResult.Inside)
 						continue;
 
-					Polygon polygon = inputPolygon;
-					intermediateResult = PolygonSplit(translatedCuttingPlane,
-							inputPolygonTranslation, polygon, outsidePolygon);
-					inputPolygon = polygon;
+					// all vertices behind the plane, nothing to split.
+					// This stays true for the pieces left over after splits.
+					if (sideMasks[otherIndex] == PlaneSideKernel.SIDE_INSIDE)
+						continue;
+
+					// equal plane ids only make the planes candidates, the
+					// polygon is aligned if all its vertices lie on the plane
+					boolean onPlane = sideMasks[otherIndex] == PlaneSideKernel.SIDE_ON;
+					if (onPlane && polygonPlaneId != -1
+							&& cuttingPlaneIds[otherIndex] == polygonPlaneId)
+						intermediateResult = PolygonSplitResult.PlaneAligned;
+					else if (onPlane && oppositePlaneId != -1
+							&& cuttingPlaneIds[otherIndex] == oppositePlaneId)
+						intermediateResult = PolygonSplitResult.PlaneOppositeAligned;
+					else
+						intermediateResult = PolygonSplit(translatedCuttingPlane,
+								inputPolygonTranslation, inputPolygon);
 
 					if (intermediateResult == PolygonSplitResult.CompletelyOutside)
 					{
@@ -807,7 +965,9 @@ public class CSGMesh
 					} else if (intermediateResult == PolygonSplitResult.Split)
 					{
 						if (outside != null)
-							outside.add(outsidePolygon);
+							outside.add(PolygonCount - 1);
+						// the input polygon shrunk, so do its bounds
+						getPolygonBounds(inputPolygon, bounds);
 						// Note: left over is still completely inside,
 						// or plane (opposite) aligned
 					} else if (intermediateResult != PolygonSplitResult.CompletelyInside)
@@ -835,151 +995,191 @@ public class CSGMesh
 			// because we've done that check earlier on. So we flag this polygon
 			// as being invisible.
 			case PlaneAligned:
-				inputPolygon.Visible = false;
+				setVisible(inputPolygon, false);
 				aligned.add(inputPolygon);
 				break;
 			case PlaneOppositeAligned:
-				inputPolygon.Visible = false;
+				setVisible(inputPolygon, false);
 				revAligned.add(inputPolygon);
 				break;
 			}
 		}
 	}
 
-	// Combines multiple meshes into one
-	public static CSGMesh Combine(Vector3 offset,
+	// Combines multiple meshes into one, welding vertices within the
+	// context's DistanceEpsilonWelding
+	public static CSGMesh Combine(CSGContext context, Vector3 offset,
 			KVPairs<CSGNode, CSGMesh> brushMeshes)
 	{
 		KVPairs<Plane, Integer> planeLookup = new KVPairs<Plane, Integer>();
-		KVPairs<Vector3, Integer> vertexLookup = new KVPairs<Vector3, Integer>();
 
 		List<Plane> planes = new ArrayList<Plane>();
-		List<Polygon> polygons = new ArrayList<Polygon>();
-		List<HalfEdge> edges = new ArrayList<HalfEdge>();
-		List<Vector3> vertices = new ArrayList<Vector3>();
+
+		int edgeCapacity = 0;
+		int vertexCapacity = 0;
+		int polygonCapacity = 0;
+		for (CSGMesh mesh : brushMeshes.values())
+		{
+			edgeCapacity += mesh.EdgeCount;
+			vertexCapacity += mesh.VertexCount;
+			polygonCapacity += mesh.PolygonCount;
+		}
+		CSGMesh combined = new CSGMesh(null, edgeCapacity, vertexCapacity,
+				polygonCapacity, new AABB());
+		VertexWelder welder = new VertexWelder(combined,
+				context.DistanceEpsilonWelding, vertexCapacity);
 
 		AABB bounds = new AABB();
+		AABB polygonBounds = new AABB();
 
 		bounds.Clear();
 		int edgeIndex = 0;
-		int polygonIndex = 0;
-		// for (Set<CSGNode> keys = brushMeshes.keySet(); keys
-		// .hasMoreElements();) {
 		for (CSGNode node : brushMeshes.keys())
 		{
-			// CSGNode node = keys.nextElement();
 			Vector3 translation = Vector3.Subtract(node.Translation, offset);
 			CSGMesh mesh = brushMeshes.get(node);
-			for (HalfEdge edge : mesh.Edges)
-			{
-				Vector3 vertex = Vector3.Add(mesh.Vertices
-						.get(edge.VertexIndex), translation);
-				Integer vertexIndex = vertexLookup.get(vertex);
-				if (vertexIndex == null)
-				{
-					vertexIndex = vertices.size();
-					vertices.add(vertex);
-					vertexLookup.put(vertex, vertexIndex);
-				}
 
-				HalfEdge newEdge = new HalfEdge();
-				newEdge.VertexIndex = vertexIndex;
-				newEdge.NextIndex = edge.NextIndex + edgeIndex;
-				newEdge.TwinIndex = edge.TwinIndex + edgeIndex;
-				newEdge.PolygonIndex = edge.PolygonIndex + polygonIndex;
+			// vertices are shared by the half-edges of a mesh, so weld them
+			// once, vertices on the seams between brushes become shared
+			int[] vertexRemap = new int[mesh.VertexCount];
+			for (int i = 0; i < mesh.VertexCount; i++)
+			{
+				int vertexOffset = 3 * i;
+				vertexRemap[i] = welder.weld(mesh.VertexCoords[vertexOffset]
+						+ translation.X, mesh.VertexCoords[vertexOffset + 1]
+						+ translation.Y, mesh.VertexCoords[vertexOffset + 2]
+						+ translation.Z);
+			}
 
-				edges.add(newEdge);
+			for (int edge = 0; edge < mesh.EdgeCount; edge++)
+			{
+				int newEdge = combined.addEdge();
+				combined.EdgeVertex[newEdge] = vertexRemap[mesh.EdgeVertex[edge]];
+				combined.EdgeNext[newEdge] = mesh.EdgeNext[edge] + edgeIndex;
+				// edges of open faces have no twin
+				combined.EdgeTwin[newEdge] = mesh.EdgeTwin[edge] == -1 ? -1
+						: mesh.EdgeTwin[edge] + edgeIndex;
+				combined.EdgePolygon[newEdge] = mesh.EdgePolygon[edge];
 			}
 
-			for (Polygon polygon : mesh.Polygons)
+			// empty polygons are skipped, so the polygon indices of the
+			// half-edges are remapped once all polygons are added
+			int[] polygonRemap = new int[mesh.PolygonCount];
+
+			// polygons of this mesh that share a plane share the combined plane
+			int[] planeRemap = new int[mesh.Planes.length];
+			Arrays.fill(planeRemap, -1);
+			for (int polygon = 0; polygon < mesh.PolygonCount; polygon++)
 			{
-				if (polygon.FirstIndex == -1)
+				if (mesh.getFirstIndex(polygon) == -1)
 					continue;
 
-				Plane plane = mesh.Planes[polygon.PlaneIndex];
-				Integer planeIndex = planeLookup.get(plane);
-				if (planeIndex == null)
+				int sourcePlane = mesh.getPlaneIndex(polygon);
+				int planeIndex = planeRemap[sourcePlane];
+				if (planeIndex == -1)
 				{
-					planeIndex = planes.size();
-					planes.add(plane);
-					planeLookup.put(plane, planeIndex);
+					// the plane is moved along with the vertices. Translated
+					// returns a copy, the brush mesh's planes are shared with the
+					// cached base mesh and the plane might get inverted below
+					Plane plane = Plane.Translated(mesh.Planes[sourcePlane],
+							translation);
+					Integer lookupIndex = planeLookup.get(plane);
+					if (lookupIndex == null)
+					{
+						// the hashed key must not change either
+						lookupIndex = planes.size();
+						planes.add(new Plane(plane));
+						planeLookup.put(plane, lookupIndex);
+					}
+					planeIndex = lookupIndex;
+					planeRemap[sourcePlane] = planeIndex;
 				}
 
-				Polygon newPolygon = new Polygon();
-				newPolygon.PlaneIndex = planeIndex;
-				newPolygon.FirstIndex = polygon.FirstIndex + edgeIndex;
-				newPolygon.Category = polygon.Category;
-				newPolygon.Visible = polygon.Visible;
-				newPolygon.Bounds.Set(polygon.Bounds, translation);
+				int newPolygon = combined.addPolygon(mesh.getFirstIndex(polygon)
+						+ edgeIndex, planeIndex, mesh.getCategory(polygon),
+						mesh.isVisible(polygon));
+				polygonRemap[polygon] = newPolygon;
+				mesh.getPolygonBounds(polygon, polygonBounds);
+				polygonBounds.Translate(translation);
+				combined.setPolygonBounds(newPolygon, polygonBounds);
 
-				polygons.add(newPolygon);
-				
-				if (newPolygon.Visible)
+				if (combined.isVisible(newPolygon))
 				{
 					/* reverse vertex order and invert normal of reversed aligned polygons at root, so we are not looking at the backside */
-					if (newPolygon.Category == PolygonCategory.ReverseAligned)
+					if (combined.getCategory(newPolygon) == PolygonCategory.ReverseAligned)
 					{
-						CSGUtility.reverseVertexOrder(newPolygon, edges, vertices);
+						CSGUtility.reverseVertexOrder(combined, newPolygon);
 						Plane polygonsPlane = planes.get(planeIndex);
 						Vector3 planeNormal = polygonsPlane.Normal();
-						polygonsPlane.setNormal(planeNormal.Negated());	
-						newPolygon.Category = PolygonCategory.Aligned;
+						polygonsPlane.setNormal(planeNormal.Negated());
+						combined.setCategory(newPolygon, PolygonCategory.Aligned);
 					}
-					
-					HalfEdge first = edges.get(newPolygon.FirstIndex);
-					HalfEdge iterator = first;
+
+					int first = combined.getFirstIndex(newPolygon);
+					int iterator = first;
 					do
 					{
-						bounds.Add(vertices.get(iterator.VertexIndex));
-						iterator = edges.get(iterator.NextIndex);
+						int vertexOffset = 3 * combined.EdgeVertex[iterator];
+						bounds.Add(combined.VertexCoords[vertexOffset],
+								combined.VertexCoords[vertexOffset + 1],
+								combined.VertexCoords[vertexOffset + 2]);
+						combined.Dop.Add(combined.VertexCoords[vertexOffset],
+								combined.VertexCoords[vertexOffset + 1],
+								combined.VertexCoords[vertexOffset + 2]);
+						iterator = combined.EdgeNext[iterator];
 					} while (iterator != first);
 				}
 			}
-			edgeIndex = edges.size();
-			polygonIndex = polygons.size();
+			for (int edge = edgeIndex; edge < combined.EdgeCount; edge++)
+				combined.EdgePolygon[edge] = polygonRemap[combined.EdgePolygon[edge]];
+
+			edgeIndex = combined.EdgeCount;
 		}
-		return new CSGMesh(planes.toArray(new Plane[0]), polygons, edges,
-				vertices, bounds);
+		combined.Planes = planes.toArray(new Plane[0]);
+		combined.Bounds.Set(bounds);
+		return combined;
 	}
 
 	/**
-	 * Implements collinearity filter, see v. Rossen & Baranowski, section mesh optimization 
+	 * Implements collinearity filter, see v. Rossen & Baranowski, section mesh optimization
+	 *
+	 * @param context context providing the PointOnLineTolerance
 	 */
-	public void filterMesh()
+	public void filterMesh(CSGContext context)
 	{
 		int nonEmptyLines = 0;
 		int linesWithAdditionalPoints = 0;
 		int totalPointsInserted = 0;
-		
+
 		/*
 		 * List storing all InfiniteLines and KVPairs look-up-table(LUT)
 		 * edge->InfiniteLine
 		 */
 		ArrayList<InfiniteLine> InfiniteLines = new ArrayList<InfiniteLine>();
-		KVPairs<HalfEdge, InfiniteLine> edgeToLineLUT = new KVPairs<HalfEdge, InfiniteLine>();
+		KVPairs<Integer, InfiniteLine> edgeToLineLUT = new KVPairs<Integer, InfiniteLine>();
 
 		/*
 		 * construct LUT for edges, points of edges will be registered on
 		 * infinite lines, lines will be stored in ArrayList above, indices of
 		 * which edge falls onto what line can be found in the KVPairs
 		 */
-		for (int i=0; i<Edges.size(); ++i)
+		for (int i=0; i<EdgeCount; ++i)
 		{
-			HalfEdge currentEdge = Edges.get(i);
-			
 			debugOut("constructing LUT for Edge #"+(i+1));
 			/*
 			 * get start vertex from current edge, end vertex from it's twin,
 			 * construct edge directional vector from these two.
 			 */
-			Vector3 edgeStart = Vertices.get(currentEdge.VertexIndex);
-			Vector3 edgeEnd = Vertices.get(Edges.get(currentEdge.TwinIndex).VertexIndex);
+			int startIndex = EdgeVertex[i];
+			int endIndex = otherVertex(i);
+			Vector3 edgeStart = getVertex(startIndex);
+			Vector3 edgeEnd = getVertex(endIndex);
 			Vector3 edgeDirection = Vector3.minus(edgeStart, edgeEnd);
 
 			/* degenerate edge, skip */
 			if (edgeDirection.Length() < VarsConstants.EdgeLengthEpsilon) continue;
 			/* twin edge already registered, so this edge's points are already on an InfiniteLine, skip */
-			if ( edgeToLineLUT.get(Edges.get(currentEdge.TwinIndex)) != null ) continue;
+			if ( EdgeTwin[i] != -1 && edgeToLineLUT.get(EdgeTwin[i]) != null ) continue;
 
 			boolean registered = false;
 
@@ -987,13 +1187,13 @@ public class CSGMesh
 			for (int j=0; j<InfiniteLines.size(); ++j)
 			{
 				InfiniteLine currentLine = InfiniteLines.get(j);
-				
+
 				if (currentLine.EdgeOnLine(edgeStart, edgeEnd))
 				{
-					currentLine.addPoint(edgeStart);
-					currentLine.addPoint(edgeEnd);
-					
-					edgeToLineLUT.put(currentEdge, currentLine);
+					currentLine.addPoint(startIndex, edgeStart);
+					currentLine.addPoint(endIndex, edgeEnd);
+
+					edgeToLineLUT.put(i, currentLine);
 					registered = true;
 					//debugOut("!!!!!!!!!!!! Edge no " + i + " added to infinite Line no " + j + " !!!!!!!!!!!!!");
 					break;
@@ -1006,12 +1206,12 @@ public class CSGMesh
 			 */
 			if (!registered)
 			{
-				InfiniteLine newLine = new InfiniteLine(edgeStart, edgeDirection);
-				newLine.addPoint(edgeStart);
-				newLine.addPoint(edgeEnd);
-				
+				InfiniteLine newLine = new InfiniteLine(edgeStart, edgeDirection, context.PointOnLineTolerance);
+				newLine.addPoint(startIndex, edgeStart);
+				newLine.addPoint(endIndex, edgeEnd);
+
 				InfiniteLines.add(newLine);
-				edgeToLineLUT.put(currentEdge, newLine);
+				edgeToLineLUT.put(i, newLine);
 				//debugOut("new Infinite Line constructed from Edge #"+(i+1)+", #of Lines: "+InfiniteLines.size());
 			}
 			++i;
@@ -1020,21 +1220,19 @@ public class CSGMesh
 		debugOut("======================");
 		debugOut("constructing LUT done.");
 		debugOut("======================");
-		
+
 		ArrayList<SplitInfo> edgesToSplit = new ArrayList<SplitInfo>();
 		/*
 		 * for all edges, check on which line they fall and if there are
 		 * additional points between start and end
 		 */
-		for (int i=0; i<Edges.size(); ++i)
+		for (int i=0; i<EdgeCount; ++i)
 		{
-			HalfEdge currentEdge = Edges.get(i);
-			
 			/* twin edge already registered, so this edge's points are already on an InfiniteLine, skip */
-			if ( edgeToLineLUT.get(Edges.get(currentEdge.TwinIndex)) != null ) continue;
-			
-			InfiniteLine line = edgeToLineLUT.get(currentEdge);
-			
+			if ( EdgeTwin[i] != -1 && edgeToLineLUT.get(EdgeTwin[i]) != null ) continue;
+
+			InfiniteLine line = edgeToLineLUT.get(i);
+
 			/*
 			 * line might be null, in case edge wasn't registered, i.e. it is
 			 * degenerate
@@ -1042,14 +1240,10 @@ public class CSGMesh
 			if (line != null)
 			{
 				++nonEmptyLines;
-				/* get start vertex from current edge, end vertex from it's twin */
-				Vector3 edgeStart = Vertices.get(currentEdge.VertexIndex);
-				Vector3 edgeEnd = Vertices.get(Edges.get(currentEdge.TwinIndex).VertexIndex);
-
 				ArrayList<PointOnLine> pointList = line.getPointsOnLine();
-				int indexStart = CSGUtility.indexOfVertexInPoLL(edgeStart, pointList);
-				int indexEnd = CSGUtility.indexOfVertexInPoLL(edgeEnd, pointList);
-				
+				int indexStart = CSGUtility.indexOfVertexInPoLL(EdgeVertex[i], pointList);
+				int indexEnd = CSGUtility.indexOfVertexInPoLL(otherVertex(i), pointList);
+
 				/* check for fatal error */
 				if ((indexStart < 0) || (indexEnd < 0))
 				{
@@ -1072,7 +1266,7 @@ public class CSGMesh
 				if (indexStart != (indexEnd - 1))
 				{
 					++linesWithAdditionalPoints;
-					
+
 					debugOut("intermediate points found for edge #"+i+", #ofPoints "+(indexEnd-indexStart));
 					SplitInfo info = new SplitInfo();
 					info.halfEdgeIndex = i;
@@ -1082,14 +1276,14 @@ public class CSGMesh
 				}
 			}
 		}
-		
+
 		/* do the actual splitting on all edges holding intermediate point */
 		for ( SplitInfo entry : edgesToSplit )
 		{
-			HalfEdge splitEdge = Edges.get(entry.halfEdgeIndex);
+			int splitEdge = entry.halfEdgeIndex;
 			int indexStart = entry.startIndex;
 			int indexEnd = entry.endIndex;
-			
+
 			InfiniteLine line = edgeToLineLUT.get(splitEdge);
 			ArrayList<PointOnLine> pointList = line.getPointsOnLine();
 
@@ -1100,66 +1294,55 @@ public class CSGMesh
 			{
 				Vector3 point = pointList.get(j).point;
 				//Vector3 projPoint = pointList.get(j).pointProjection;
-				Vector3 insertPoint = new Vector3(point);
 				/* snap vertex onto other edge */
 				//point = projPoint;
-				
-				splitEdge = EdgeSplit(splitEdge, insertPoint);
+
+				splitEdge = EdgeSplit(splitEdge, point);
 				++totalPointsInserted;
 			}
 		}
-		
-		debugOut("non empty lines: "+nonEmptyLines+", lines with intermediate points: "+linesWithAdditionalPoints+", totalPointsInserted: "+totalPointsInserted+", total #of Edges: "+Edges.size());
+
+		debugOut("non empty lines: "+nonEmptyLines+", lines with intermediate points: "+linesWithAdditionalPoints+", totalPointsInserted: "+totalPointsInserted+", total #of Edges: "+EdgeCount);
 	}
-	
+
 	/* filtering for boundary edges only */
-	public void filterMesh2()
+	public void filterMesh2(CSGContext context)
 	{
 		int nonEmptyLines = 0;
 		int linesWithAdditionalPoints = 0;
 		int totalPointsInserted = 0;
-		
-		int edgeIndex = 0;
-		for ( HalfEdge currentEdge : this.Edges)
-		{
-			HalfEdge currentEdgesTwin = this.Edges.get(currentEdge.TwinIndex);
-			/* find Polygon, this half edge lies in */
-			Polygon polygonOfCurrentEdge = findPolygonofEdge(edgeIndex);
-			Polygon polygonOfCurrentEdgeTwin = findPolygonofEdge(currentEdge.TwinIndex);
-			
-			if ( (polygonOfCurrentEdge == null) || (polygonOfCurrentEdgeTwin == null) )
-			{
-				throw new IllegalArgumentException("edges don't lie in any polygon");
-			}
-			
-			if ( polygonOfCurrentEdge.Visible && !polygonOfCurrentEdgeTwin.Visible ) this.boundaryEdges.add(currentEdge);
-			else if ( !polygonOfCurrentEdge.Visible && polygonOfCurrentEdgeTwin.Visible ) this.boundaryEdges.add(currentEdgesTwin);
-		}
-		
-		debugOut("#of boundaryEdges in filter: "+this.boundaryEdges.size()+" / ("+this.Edges.size()+" total)");
-		
+
+		/* the edges of an earlier filtering are stale */
+		this.boundaryEdges.clear();
+		this.boundaryEdges.addAll(boundaryEdges());
+
+		debugOut("#of boundaryEdges in filter: "+this.boundaryEdges.size()+" / ("+EdgeCount+" total)");
+
 		/*
 		 * List storing all InfiniteLines and KVPairs look-up-table(LUT)
 		 * edge->InfiniteLine
 		 */
 		ArrayList<InfiniteLine2> InfiniteLines = new ArrayList<InfiniteLine2>();
-		KVPairs<HalfEdge, InfiniteLine2> edgeToLineLUT = new KVPairs<HalfEdge, InfiniteLine2>();
-		
+		KVPairs<Integer, InfiniteLine2> edgeToLineLUT = new KVPairs<Integer, InfiniteLine2>();
+
 		/* construct infinite lines for boundary edges only, to check which additional points are on collinear edges */
-		for ( HalfEdge edge : this.boundaryEdges )
+		for ( int k = 0; k < this.boundaryEdges.size(); k++ )
 		{
+			int edge = this.boundaryEdges.get(k);
 			/*
 			 * get start vertex from current edge, end vertex from it's twin,
 			 * construct edge directional vector from these two.
 			 */
-			Vector3 edgeStart = Vertices.get(edge.VertexIndex);
-			Vector3 edgeEnd = Vertices.get(Edges.get(edge.TwinIndex).VertexIndex);
+			int startIndex = EdgeVertex[edge];
+			int endIndex = otherVertex(edge);
+			Vector3 edgeStart = getVertex(startIndex);
+			Vector3 edgeEnd = getVertex(endIndex);
 			Vector3 edgeDirection = Vector3.minus(edgeStart, edgeEnd);
-	
-			InfiniteLine2 newLine = new InfiniteLine2(edgeStart, edgeDirection, edge);
-			newLine.addPoint(edgeStart);
-			newLine.addPoint(edgeEnd);
-			
+
+			InfiniteLine2 newLine = new InfiniteLine2(edgeStart, edgeDirection, edge, context.PointOnLineTolerance);
+			newLine.addPoint(startIndex, edgeStart);
+			newLine.addPoint(endIndex, edgeEnd);
+
 			InfiniteLines.add(newLine);
 			edgeToLineLUT.put(edge, newLine);
 			//debugOut("new Infinite Line constructed from Edge #"+(i+1)+", #of Lines: "+InfiniteLines.size());
@@ -1170,32 +1353,34 @@ public class CSGMesh
 		 * infinite lines, lines will be stored in ArrayList above, indices of
 		 * which edge falls onto what line can be found in the KVPairs
 		 */
-		for ( HalfEdge currentEdge : this.Edges )
+		for ( int currentEdge = 0; currentEdge < EdgeCount; currentEdge++ )
 		{
 			/*
 			 * get start vertex from current edge, end vertex from it's twin,
 			 * construct edge directional vector from these two.
 			 */
-			Vector3 edgeStart = Vertices.get(currentEdge.VertexIndex);
-			Vector3 edgeEnd = Vertices.get(Edges.get(currentEdge.TwinIndex).VertexIndex);
+			int startIndex = EdgeVertex[currentEdge];
+			int endIndex = otherVertex(currentEdge);
+			Vector3 edgeStart = getVertex(startIndex);
+			Vector3 edgeEnd = getVertex(endIndex);
 			Vector3 edgeDirection = Vector3.minus(edgeStart, edgeEnd);
 
 			/* degenerate edge, skip */
 			if (edgeDirection.Length() < VarsConstants.EdgeLengthEpsilon) continue;
 			/* twin edge already registered, so this edge's points are already on an InfiniteLine, skip */
-			if ( edgeToLineLUT.get(Edges.get(currentEdge.TwinIndex)) != null ) continue;
+			if ( EdgeTwin[currentEdge] != -1 && edgeToLineLUT.get(EdgeTwin[currentEdge]) != null ) continue;
 
 			/* find the InfiniteLine, this edge lies on */
 			for (int j=0; j<InfiniteLines.size(); ++j)
 			{
 				InfiniteLine2 currentLine = InfiniteLines.get(j);
-				
+
 				if (currentLine.EdgeOnLine(edgeStart, edgeEnd))
 				{
 					currentLine.addEdge(currentEdge);
-					currentLine.addPoint(edgeStart);
-					currentLine.addPoint(edgeEnd);
-					
+					currentLine.addPoint(startIndex, edgeStart);
+					currentLine.addPoint(endIndex, edgeEnd);
+
 					edgeToLineLUT.put(currentEdge, currentLine);
 					//debugOut("!!!!!!!!!!!! Edge no " + i + " added to infinite Line no " + j + " !!!!!!!!!!!!!");
 					break;
@@ -1206,56 +1391,24 @@ public class CSGMesh
 		debugOut("======================");
 		debugOut("constructing LUT done.");
 		debugOut("======================");
-		
+
 		int i = 0;
 		ArrayList<SplitInfo> edgesToSplit = new ArrayList<SplitInfo>();
-		
+
 		for ( InfiniteLine2 infiniteLine : InfiniteLines )
 		{
-			List<HalfEdge> collinearEdges = infiniteLine.getEdgesOnLine();
-			HalfEdge inducingEdge = infiniteLine.getInducingEdge();
-						
-			int noOfBoundaryCollinearEdges = 0;
-			
-			/* 
-			 * find collinear edges that are also boundary for welding step
-			 *
-			for ( HalfEdge collinearEdge : collinearEdges )
-			{
-				/* check if one of the boundary edges is collinear to this one *
-				for ( HalfEdge boundaryEdge : this.boundaryEdges )
-				{
-					if ( collinearEdge.equals(boundaryEdge) )
-					{
-						/* check if collinear edge is not self *
-						if ( !inducingEdge.equals(collinearEdge) );
-						{
-							/* found another boundary edge collinear to this one *
-							++noOfBoundaryCollinearEdges;
-							/* try to "weld" edges *
-							boolean weldingMatch = weldEdges(inducingEdge, collinearEdge);
-							if ( weldingMatch ) debugOut("found welding match!");
-						}
-					}
-				}
-			}
-			
-			debugOut("#of collinear edges: "+collinearEdges.size()+"  --  found #"+noOfBoundaryCollinearEdges+" collinear edge that are boundary");*/
-			
-			/* 
+			int inducingEdge = infiniteLine.getInducingEdge();
+
+			/*
 			 * vertex snapping step
 			 */
-			
-			/* get start vertex from inducing edge, end vertex from it's twin */
-			Vector3 edgeStart = Vertices.get(inducingEdge.VertexIndex);
-			Vector3 edgeEnd = Vertices.get(Edges.get(inducingEdge.TwinIndex).VertexIndex);
-			
+
 			ArrayList<PointOnLine> pointList = infiniteLine.getPointsOnLine();
-			int indexStart = CSGUtility.indexOfVertexInPoLL(edgeStart, pointList);
-			int indexEnd = CSGUtility.indexOfVertexInPoLL(edgeEnd, pointList);
-			
+			int indexStart = CSGUtility.indexOfVertexInPoLL(EdgeVertex[inducingEdge], pointList);
+			int indexEnd = CSGUtility.indexOfVertexInPoLL(otherVertex(inducingEdge), pointList);
+
 			debugOut("indexStart, indexEnd: "+indexStart+", "+indexEnd);
-			
+
 			/* check for fatal error */
 			if ((indexStart < 0) || (indexEnd < 0))
 			{
@@ -1276,7 +1429,7 @@ public class CSGMesh
 			if (indexStart != (indexEnd - 1))
 			{
 				++linesWithAdditionalPoints;
-				
+
 				debugOut("intermediate points found for edge, #ofPoints "+(indexEnd-indexStart));
 				SplitInfo info = new SplitInfo();
 				info.halfEdgeIndex = i;
@@ -1284,20 +1437,20 @@ public class CSGMesh
 				info.endIndex = indexEnd;
 				edgesToSplit.add(info);
 			}
-			
+
 			++i;
 		}
-		
-		
+
+
 		/* do the actual splitting on all edges holding intermediate point */
 		for ( SplitInfo entry : edgesToSplit )
 		{
 			InfiniteLine2 line = InfiniteLines.get(entry.halfEdgeIndex);
-			
-			HalfEdge splitEdge = line.getInducingEdge();
+
+			int splitEdge = line.getInducingEdge();
 			int indexStart = entry.startIndex;
 			int indexEnd = entry.endIndex;
-			
+
 			ArrayList<PointOnLine> pointList = line.getPointsOnLine();
 
 			/*
@@ -1307,108 +1460,90 @@ public class CSGMesh
 			{
 				Vector3 point = pointList.get(j).point;
 				//Vector3 projPoint = pointList.get(j).pointProjection;
-				Vector3 insertPoint = new Vector3(point);
 				/* snap vertex onto other edge */
 				//point = projPoint;
-				
-				splitEdge = EdgeSplit(splitEdge, insertPoint);
+
+				splitEdge = EdgeSplit(splitEdge, point);
 				++totalPointsInserted;
 			}
 		}
-		debugOut("non empty lines: "+nonEmptyLines+", lines with intermediate points: "+linesWithAdditionalPoints+", totalPointsInserted: "+totalPointsInserted+", total #of Edges: "+Edges.size());
+		debugOut("non empty lines: "+nonEmptyLines+", lines with intermediate points: "+linesWithAdditionalPoints+", totalPointsInserted: "+totalPointsInserted+", total #of Edges: "+EdgeCount);
 	}
-	
+
 	/**
-	 * Implements Borodin, Novotni, Klein: "progressive gap closing..." 
+	 * Implements Borodin, Novotni, Klein: "progressive gap closing..."
+	 *
+	 * @param context context providing the DistanceEpsilonWelding threshold
 	 */
-	public void filterMesh3()
-	{	
-		int edgeIndex = 0;
-		for ( HalfEdge currentEdge : this.Edges)
-		{
-			HalfEdge currentEdgesTwin = this.Edges.get(currentEdge.TwinIndex);
-			/* find Polygon, this half edge and it's twin lie in */
-			Polygon polygonOfCurrentEdge = findPolygonofEdge(edgeIndex);
-			Polygon polygonOfCurrentEdgeTwin = findPolygonofEdge(currentEdge.TwinIndex);
-			
-			if ( (polygonOfCurrentEdge == null) || (polygonOfCurrentEdgeTwin == null) )
-			{
-				throw new IllegalArgumentException("edges don't lie in any polygon");
-			}
-			
-			if ( polygonOfCurrentEdge.Visible && !polygonOfCurrentEdgeTwin.Visible ) this.boundaryEdges.add(currentEdge);
-			else if ( !polygonOfCurrentEdge.Visible && polygonOfCurrentEdgeTwin.Visible ) this.boundaryEdges.add(currentEdgesTwin);
-		}
-		
-		//debugOut("#of boundaryEdges in filter: "+this.boundaryEdges.size()+" / ("+this.Edges.size()+" total)");
-		
+	public void filterMesh3(CSGContext context)
+	{
+		double threshold = context.DistanceEpsilonWelding;
+
+		/* the edges of an earlier filtering are stale */
+		this.boundaryEdges.clear();
+		this.boundaryEdges.addAll(boundaryEdges());
+
+		//debugOut("#of boundaryEdges in filter: "+this.boundaryEdges.size()+" / ("+EdgeCount+" total)");
+
 		/* construct feature from boundary edges */
 		ArrayList<Feature> boundaryFeatures = new ArrayList<Feature>();
 		int boundaryVertices = 0;
-		//int boundaryEdgeCounter = 0;
-		
-		for ( HalfEdge edge : this.boundaryEdges )
+
+		for ( int k = 0; k < this.boundaryEdges.size(); k++ )
 		{
-			HalfEdge edgesTwin = this.Edges.get(edge.TwinIndex);
-			Vector3 edgeStart = Vertices.get(edge.VertexIndex);
-			Vector3 edgeEnd = Vertices.get(Edges.get(edge.TwinIndex).VertexIndex);
-			
-			FeatureEdge featureEdge = new FeatureEdge(edge, edgesTwin, edgeStart, edgeEnd);
-			FeatureVertex featureStart = new FeatureVertex(edgeStart);
-			FeatureVertex featureEnd = new FeatureVertex(edgeEnd);
-			
+			int edge = this.boundaryEdges.get(k);
+			int edgesTwin = EdgeTwin[edge];
+			int edgeStart = EdgeVertex[edge];
+			int edgeEnd = otherVertex(edge);
+
+			FeatureEdge featureEdge = new FeatureEdge(this, edge, edgesTwin, edgeStart, edgeEnd);
+			FeatureVertex featureStart = new FeatureVertex(this, edgeStart);
+			FeatureVertex featureEnd = new FeatureVertex(this, edgeEnd);
+
 			boundaryFeatures.add(featureEdge);
 			boundaryFeatures.add(featureStart);
 			boundaryFeatures.add(featureEnd);
-			
+
 			boundaryVertices+=2;
-			//++boundaryEdgeCounter;
-			
-			//debugOut("building new Feature for Edge number: "+boundaryEdgeCounter);
 		}
-		
+
 		/* priority queue, ordering features by distance to nearest feature */
-		PriorityQueue<Feature> pqVertexFeatures = new PriorityQueue<Feature>(boundaryVertices, new FeatureComparator());
-		
-		//boundaryVertices = 0;
+		PriorityQueue<Feature> pqVertexFeatures = new PriorityQueue<Feature>(Math.max(boundaryVertices, 1), new FeatureComparator());
+
 		/* preprocessing, for every feature vertex, find nearest feature */
 		for ( Feature feature : boundaryFeatures)
 		{
 			if ( feature instanceof FeatureVertex )
-			{ 
+			{
 				((FeatureVertex) feature).findNearestBoundaryEdge(boundaryFeatures);
 				pqVertexFeatures.add(feature);
-				//++boundaryVertices;
-				//debugOut("features found for boundary vertex no: "+boundaryVertices);
 			}
-		}		
-		
+		}
+
 		debugOut("preprocessing done.");
-		
+
 		ArrayDeque<FeatureEdge> modifiedEdges = new ArrayDeque<FeatureEdge>();
 
-		//debugOut("pqVertexFeatures.size(): "+pqVertexFeatures.size());
-		
 		/* decimation step */
 		while ( !pqVertexFeatures.isEmpty() )
 		{
 			FeatureVertex min = (FeatureVertex) pqVertexFeatures.poll();
 			Feature f = min.nearestFeature;
-			
+
 			/* if distance > threshold STOP */
-			if ( min.distanceToNearestFeature > VarsConstants.DistanceEpsilonWelding ) {debugOut("minDistance: "+min.distanceToNearestFeature+", min greater than threshold, stop."); return;}
-			
+			if ( min.distanceToNearestFeature > threshold ) {debugOut("minDistance: "+min.distanceToNearestFeature+", min greater than threshold, stop."); return;}
+
 			if ( f instanceof FeatureVertex )
 			{
 				FeatureVertex fFeatureVertex = (FeatureVertex) f;
-				vertexVertexContraction(min.point, fFeatureVertex.point, 0.5);
+				vertexVertexContraction(min.vertex, fFeatureVertex.vertex, 0.5);
 			}
 			else if ( f instanceof FeatureEdge )
 			{
 				FeatureEdge fFeatureEdge = (FeatureEdge) f;
-				vertexEdgeContraction(min, fFeatureEdge , modifiedEdges, boundaryFeatures);
+				vertexEdgeContraction(min, fFeatureEdge , modifiedEdges, boundaryFeatures, threshold);
 			}
-			
+
 			while ( !modifiedEdges.isEmpty() )
 			{
 				/* update corresponding features information for all vertices of all modified edges */
@@ -1427,27 +1562,28 @@ public class CSGMesh
 			}
 		}
 	}
-	
+
 	/**
-	 * Vertex-Vertex contraction. Contracts to vertices into the exact same spot as a convex combination 
-	 * 
-	 * @param a vertex 1 to contract
-	 * @param b vertex 2 to contract
+	 * Vertex-Vertex contraction. Contracts to vertices into the exact same spot as a convex combination
+	 *
+	 * @param a index of vertex 1 to contract
+	 * @param b index of vertex 2 to contract
 	 * @param lambda new vertex position is defined as lambda*a + (1-lambda*b)
 	 */
-	private void vertexVertexContraction(Vector3 a, Vector3 b, double lambda)
+	private void vertexVertexContraction(int a, int b, double lambda)
 	{
-		Vector3 v = Vector3.mult(lambda, a);
-		Vector3 vPrime = Vector3.mult(1.0-lambda, b);
-		Vector3 vnew = Vector3.Add(v, vPrime);
-		
+		int offsetA = 3 * a;
+		int offsetB = 3 * b;
+		double x = lambda * VertexCoords[offsetA] + (1.0-lambda) * VertexCoords[offsetB];
+		double y = lambda * VertexCoords[offsetA + 1] + (1.0-lambda) * VertexCoords[offsetB + 1];
+		double z = lambda * VertexCoords[offsetA + 2] + (1.0-lambda) * VertexCoords[offsetB + 2];
+
 		/* drag both initial vertices into same position */
-		a.X = b.X = vnew.X;
-		a.Y = b.Y = vnew.Y;
-		a.Z = b.Z = vnew.Z;
+		setVertex(a, x, y, z);
+		setVertex(b, x, y, z);
 		debugOut("vertex-vertex contraction\n");
 	}
-	
+
 	/**
 	 * Vertex-Edge contraction. Contracts a vertex and an edge. If orthogonal projection of vertex falls
 	 * into epsilon vicinity of one of the edges end vertices, vertex-vertex contraction of vertex and edge
@@ -1457,70 +1593,127 @@ public class CSGMesh
 	 * @param b edge to contract vertex to
 	 * @param modifiedEdges edges that were modified
 	 * @param boundaryFeatures all features on the boundary
+	 * @param threshold distance below which the projection snaps to an end vertex
 	 */
-	private void vertexEdgeContraction(FeatureVertex a, FeatureEdge b, ArrayDeque<FeatureEdge> modifiedEdges, ArrayList<Feature> boundaryFeatures)
+	private void vertexEdgeContraction(FeatureVertex a, FeatureEdge b, ArrayDeque<FeatureEdge> modifiedEdges, ArrayList<Feature> boundaryFeatures, double threshold)
 	{
-		Vector3 point = a.point;
+		Vector3 point = a.point();
 		/* check if orthogonal projection is near edge vertex */
 		Vector3 orthogonalProjection = b.getOrthogonalProjectionOntoEdge(point);
 		/* if near edge vertex perform vertex-vertex instead */
-		if ( orthogonalProjection.Distance(b.edgeStart) <= VarsConstants.DistanceEpsilonWelding )
+		if ( orthogonalProjection.Distance(b.edgeStart()) <= threshold )
 		{
 			debugOut("vertex-vertex by vertex-edge contraction (start)");
-			vertexVertexContraction(point, b.edgeStart, 0.5);
+			vertexVertexContraction(a.vertex, b.startVertex, 0.5);
 			return;
 		}
-		else if ( orthogonalProjection.Distance(b.edgeEnd) <= VarsConstants.DistanceEpsilonWelding )
+		else if ( orthogonalProjection.Distance(b.edgeEnd()) <= threshold )
 		{
 			debugOut("vertex-vertex by vertex-edge contraction (end)");
-			vertexVertexContraction(point, b.edgeEnd, 0.5);
+			vertexVertexContraction(a.vertex, b.endVertex, 0.5);
 			return;
 		}
-		
+
 		debugOut("vertex-edge contraction");
 		/* else split edge, mark as modified, what to do with new edge?, finally move vertices into new position by vertex-vertex contraction */
-		HalfEdge featureEdge = b.edge;
-		HalfEdge newEdge = EdgeSplit(featureEdge, orthogonalProjection);
+		int newEdge = EdgeSplit(b.edge, orthogonalProjection);
+		int projectedVertex = VertexCount - 1;
 		modifiedEdges.add(b);
-		HalfEdge newEdgeTwin = this.Edges.get(newEdge.TwinIndex);
-		Vector3 newEdgeStart = this.Vertices.get(newEdge.VertexIndex);
-		Vector3 newEdgeEnd = this.Vertices.get(newEdgeTwin.VertexIndex);
-		FeatureEdge newFeature = new FeatureEdge(newEdge, newEdgeTwin, newEdgeStart, newEdgeEnd);
+		int newEdgeTwin = EdgeTwin[newEdge];
+		FeatureEdge newFeature = new FeatureEdge(this, newEdge, newEdgeTwin, EdgeVertex[newEdge], otherVertex(newEdge));
 		boundaryFeatures.add(newFeature);
-		vertexVertexContraction(point, orthogonalProjection, 0.5);
-		
-		//debugOut("\n");
+		vertexVertexContraction(a.vertex, projectedVertex, 0.5);
+	}
+
+
+	/**
+	 * checks if a half edge lies on the boundary of the visible surface,
+	 * i.e. it lies in a visible polygon and its twin in an invisible one,
+	 * or if it lies in a visible polygon on an open boundary of the mesh and
+	 * has no twin
+	 *
+	 * @param edge index of the half edge
+	 * @return true if the half edge is a boundary edge
+	 */
+	public boolean isBoundaryEdge(int edge)
+	{
+		int twin = EdgeTwin[edge];
+		if ( twin == -1 ) return isVisible(EdgePolygon[edge]);
+		return isVisible(EdgePolygon[edge])
+				&& !isVisible(EdgePolygon[twin]);
+	}
+
+	/**
+	 * returns the vertex at the other end of a half edge, taken from its
+	 * twin or, if it has no twin, from the edge before it in its polygon
+	 *
+	 * @param edge index of the half edge
+	 * @return index of the vertex that is not EdgeVertex[edge]
+	 */
+	public int otherVertex(int edge)
+	{
+		if ( EdgeTwin[edge] != -1 ) return EdgeVertex[EdgeTwin[edge]];
+		int previous = edge;
+		while ( EdgeNext[previous] != edge ) previous = EdgeNext[previous];
+		return EdgeVertex[previous];
 	}
-	
 
 	/**
-	 * finds the polygon a given half edge lies in
-	 * 
-	 * @param edgeIndex index of the half edge to be looked up
-	 * @return the polygon this half edge lies in
+	 * collects all boundary edges of the mesh in one pass over the half
+	 * edges, every boundary is reported once by its visible half edge
+	 *
+	 * @return indices of the boundary half edges
 	 */
-	private Polygon findPolygonofEdge(int edgeIndex)
+	public IntList boundaryEdges()
 	{
-		for ( Polygon currentPolygon : this.Polygons )
+		IntList result = new IntList();
+		for ( int edge = 0; edge < EdgeCount; edge++ )
 		{
-			if ( currentPolygon.FirstIndex == edgeIndex ) return currentPolygon;
-			
-			HalfEdge firstEdge = this.Edges.get(currentPolygon.FirstIndex);
-			HalfEdge currentEdge = this.Edges.get(firstEdge.NextIndex);
-			int currentIndex = firstEdge.NextIndex;
-			
-			while (firstEdge != currentEdge)
+			if ( isBoundaryEdge(edge) ) result.add(edge);
+		}
+		return result;
+	}
+
+	/**
+	 * chains the boundary edges into loops. The successor of a boundary edge
+	 * is found by rotating around its vertex through the visible polygons.
+	 * Chains that do not close (non-manifold boundaries) are returned open.
+	 *
+	 * @return boundary loops as lists of half edge indices
+	 */
+	public List<IntList> boundaryLoops()
+	{
+		List<IntList> loops = new ArrayList<IntList>();
+		boolean[] visited = new boolean[EdgeCount];
+
+		for ( int start = 0; start < EdgeCount; start++ )
+		{
+			if ( visited[start] || !isBoundaryEdge(start) ) continue;
+
+			IntList loop = new IntList();
+			int edge = start;
+			do
 			{
-				if ( currentIndex == edgeIndex ) return currentPolygon;
-				 
-				currentIndex = currentEdge.NextIndex;
-				currentEdge = this.Edges.get(currentEdge.NextIndex);
-			}
+				visited[edge] = true;
+				loop.add(edge);
+
+				/* rotate around the shared vertex until the next boundary edge is reached */
+				int next = EdgeNext[edge];
+				int steps = 0;
+				while ( !isBoundaryEdge(next) && EdgeTwin[next] != -1 && steps++ < EdgeCount )
+				{
+					next = EdgeNext[EdgeTwin[next]];
+				}
+				if ( !isBoundaryEdge(next) ) break;
+				edge = next;
+			} while ( !visited[edge] );
+
+			loops.add(loop);
 		}
-		
-		return null;
+
+		return loops;
 	}
-	
+
 	/*
 	 * helper methode, delete to identify debugMessages
 	 */
@@ -1528,5 +1721,5 @@ public class CSGMesh
 	{
 		System.out.println(message);
 	}
-	
+
 }
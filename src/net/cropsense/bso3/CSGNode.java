@@ -14,6 +14,8 @@ public class CSGNode
 {
 
 	public AABB Bounds;
+	// optional tighter bounds, null if unknown
+	public KDOP Dop;
 	public CSGNodeType NodeType;
 
 	public CSGNode Left;
@@ -23,6 +25,8 @@ public class CSGNode
 	public Vector3 LocalTranslation;
 	public Vector3 Translation;
 	public Plane[] Planes;
+	// template of the mesh of a brush, null if it is built from the planes
+	public BrushTemplate Template;
 
 	public CSGNode(String id, CSGNodeType branchOperator)
 	{
@@ -2,7 +2,6 @@ package net.cropsense.bso3;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.ArrayDeque;
 
 
 /**
@@ -78,51 +77,67 @@ public class CSGUtility
 					leftNode.Translation, node.Translation)));
 			node.Bounds.Add(rightNode.Bounds.Translated(Vector3.Subtract(
 					rightNode.Translation, node.Translation)));
+
+			if (leftNode.Dop != null && rightNode.Dop != null)
+			{
+				node.Dop = leftNode.Dop.Translated(Vector3.Subtract(
+						leftNode.Translation, node.Translation));
+				node.Dop.Add(rightNode.Dop.Translated(Vector3.Subtract(
+						rightNode.Translation, node.Translation)));
+			} else
+				node.Dop = null;
 		}
 	}
 	
 	/**
 	 * reverses the vertex order of the given polygon
 	 * 
-	 * @param polygon the polygon to be inverted
-	 * @param edges the edge list of the polygon's mesh
-	 * @param vertices the vertex list of the polygon's mesh
+	 * @param mesh the polygon's mesh
+	 * @param polygon index of the polygon to be inverted
 	 */
-	public static void reverseVertexOrder(Polygon polygon, List<HalfEdge> edges, List<Vector3> vertices)
+	public static void reverseVertexOrder(CSGMesh mesh, int polygon)
 	{
-		ArrayDeque<Integer> stack = new ArrayDeque<Integer>();
+		mesh.ensureEdgesWritable();
+		int[] edgeVertex = mesh.EdgeVertex;
+		int[] edgeNext = mesh.EdgeNext;
+		
+		int firstEdge = mesh.getFirstIndex(polygon);
+		int count = 1;
+		for (int currentEdge = edgeNext[firstEdge]; currentEdge != firstEdge; currentEdge = edgeNext[currentEdge])
+			++count;
 		
-		HalfEdge firstEdge = edges.get(polygon.FirstIndex);
-		stack.push(firstEdge.VertexIndex);
+		int[] stack = new int[count];
+		int top = 0;
+		stack[top++] = edgeVertex[firstEdge];
 		
-		HalfEdge currentEdge = edges.get(firstEdge.NextIndex);
+		int currentEdge = edgeNext[firstEdge];
 				
 		while (firstEdge != currentEdge)
 		{	 
-			stack.push(currentEdge.VertexIndex);
-			currentEdge = edges.get(currentEdge.NextIndex);
+			stack[top++] = edgeVertex[currentEdge];
+			currentEdge = edgeNext[currentEdge];
 		}
 		
-		firstEdge.VertexIndex = stack.pop();
-		currentEdge = edges.get(firstEdge.NextIndex);
+		edgeVertex[firstEdge] = stack[--top];
+		currentEdge = edgeNext[firstEdge];
 		
 		while (firstEdge != currentEdge)
 		{	 
-			currentEdge.VertexIndex = stack.pop();
-			currentEdge = edges.get(currentEdge.NextIndex);
+			edgeVertex[currentEdge] = stack[--top];
+			currentEdge = edgeNext[currentEdge];
 		}
 	}
 	
 	/**
-	 * @param vertex the vertex to find in the Point on line list
+	 * @param vertexIndex index of the vertex to find in the Point on line list
 	 * @param points the PointOnLine list
 	 * @return index of the point on line that holds identical vertex, or -1 if vertex is not found in list
 	 */
-	public static int indexOfVertexInPoLL( Vector3 vertex, ArrayList<PointOnLine> points )
+	public static int indexOfVertexInPoLL( int vertexIndex, ArrayList<PointOnLine> points )
 	{
 		for ( int i=0; i<points.size(); ++i )
 		{
-			if ( points.get(i).point == vertex ) return i;
+			if ( points.get(i).vertexIndex == vertexIndex ) return i;
 		}
 		
 		return -1;
@@ -0,0 +1,160 @@
+package net.cropsense.bso3;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Remembers the categorized brush meshes of the last evaluated tree, so an
+ * evaluation of a tree with the same structure only categorizes the brushes
+ * that changed or may be affected by a change.
+ *
+ * A brush whose planes and relative translation are unchanged keeps its
+ * categorization if its bounds are outside the old and the new bounds of
+ * every changed brush: categorizing against a brush it does not touch leaves
+ * its polygons outside of that brush either way. Trees are compared by
+ * value, so the evaluated trees must not share nodes.
+ *
+ */
+public class CategorizationCache
+{
+	private CSGNode root;
+	private KVPairs<CSGNode, CSGMesh> meshes;
+
+	private long reused;
+	private long categorized;
+
+	/**
+	 * Returns the meshes of the last evaluation that are still valid for the
+	 * brushes of the given tree, by the brushes of the given tree. The bounds
+	 * of the tree have to be up to date.
+	 */
+	public KVPairs<CSGNode, CSGMesh> findReusable(CSGNode newRoot)
+	{
+		KVPairs<CSGNode, CSGMesh> result = new KVPairs<CSGNode, CSGMesh>(true);
+		if (root == null)
+			return result;
+
+		List<CSGNode> oldBrushes = new ArrayList<CSGNode>();
+		List<CSGNode> newBrushes = new ArrayList<CSGNode>();
+		if (!match(root, newRoot, oldBrushes, newBrushes))
+			return result;
+
+		// old and new bounds of the changed brushes
+		List<AABB> changedBounds = new ArrayList<AABB>();
+		boolean[] changed = new boolean[newBrushes.size()];
+		for (int i = 0; i < newBrushes.size(); i++)
+		{
+			CSGNode oldBrush = oldBrushes.get(i);
+			CSGNode newBrush = newBrushes.get(i);
+			if (!meshes.containsKey(oldBrush)
+					|| !equalPlanes(oldBrush.Planes, newBrush.Planes)
+					|| !equalVectors(relativeTranslation(oldBrush, root),
+							relativeTranslation(newBrush, newRoot)))
+			{
+				changed[i] = true;
+				changedBounds.add(relativeBounds(oldBrush, root));
+				changedBounds.add(relativeBounds(newBrush, newRoot));
+			}
+		}
+
+		for (int i = 0; i < newBrushes.size(); i++)
+		{
+			if (changed[i])
+				continue;
+			CSGNode newBrush = newBrushes.get(i);
+			AABB bounds = relativeBounds(newBrush, newRoot);
+			boolean affected = false;
+			for (AABB other : changedBounds)
+			{
+				if (!AABB.IsOutside(bounds, other))
+				{
+					affected = true;
+					break;
+				}
+			}
+			if (!affected)
+				result.put(newBrush, meshes.get(oldBrushes.get(i)));
+		}
+		return result;
+	}
+
+	/**
+	 * Stores the categorized brush meshes of the given tree for the next
+	 * evaluation.
+	 */
+	public void store(CSGNode root, KVPairs<CSGNode, CSGMesh> categorizedMeshes,
+			int reusedCount)
+	{
+		this.root = root;
+		this.meshes = new KVPairs<CSGNode, CSGMesh>(true);
+		for (CSGNode node : categorizedMeshes.keys())
+			meshes.put(node, categorizedMeshes.get(node).Clone());
+
+		reused += reusedCount;
+		categorized += categorizedMeshes.size() - reusedCount;
+	}
+
+	public void clear()
+	{
+		root = null;
+		meshes = null;
+	}
+
+	/**
+	 * @return number of brush categorizations taken from the last evaluation
+	 */
+	public long getReused()
+	{
+		return reused;
+	}
+
+	/**
+	 * @return number of brushes categorized anew
+	 */
+	public long getCategorized()
+	{
+		return categorized;
+	}
+
+	// Compares the structure of the trees and collects their brushes in
+	// matching order
+	private static boolean match(CSGNode oldNode, CSGNode newNode,
+			List<CSGNode> oldBrushes, List<CSGNode> newBrushes)
+	{
+		if (oldNode.NodeType != newNode.NodeType)
+			return false;
+		if (oldNode.NodeType == CSGNodeType.Brush)
+		{
+			oldBrushes.add(oldNode);
+			newBrushes.add(newNode);
+			return true;
+		}
+		return match(oldNode.Left, newNode.Left, oldBrushes, newBrushes)
+				&& match(oldNode.Right, newNode.Right, oldBrushes, newBrushes);
+	}
+
+	private static boolean equalPlanes(Plane[] a, Plane[] b)
+	{
+		if (a.length != b.length)
+			return false;
+		for (int i = 0; i < a.length; i++)
+			if (!a[i].equals(b[i]))
+				return false;
+		return true;
+	}
+
+	private static boolean equalVectors(Vector3 a, Vector3 b)
+	{
+		return a.X == b.X && a.Y == b.Y && a.Z == b.Z;
+	}
+
+	private static Vector3 relativeTranslation(CSGNode node, CSGNode root)
+	{
+		return Vector3.Subtract(node.Translation, root.Translation);
+	}
+
+	private static AABB relativeBounds(CSGNode node, CSGNode root)
+	{
+		return node.Bounds.Translated(relativeTranslation(node, root));
+	}
+}
@@ -0,0 +1,353 @@
+package net.cropsense.bso3;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import de.grogra.xl.util.IntList;
+
+/**
+ * Builds the mesh of a brush, the convex polytope bounded by a set of planes.
+ *
+ * Starting with a cube that encloses the brush, the polytope is clipped by
+ * one plane after another. A clip only visits the current polytope, so the
+ * cost grows with the number of planes times the size of the result instead
+ * of with the number of plane triples.
+ *
+ * Every vertex remembers the planes it lies on. The position of a vertex is
+ * the intersection of the three planes with the lowest indices that have a
+ * proper intersection, so clipping does not accumulate errors, and a vertex
+ * where more than three planes meet stays one vertex. Planes that only touch
+ * the polytope are added to the vertices they touch, but get no polygon.
+ *
+ */
+public class ConvexBrushBuilder
+{
+	/* half size of the initial cube relative to the plane distances */
+	private static final double CUBE_SCALE = 1e4;
+
+	/* brush planes followed by the planes of the initial cube */
+	private final Plane[] planes;
+	private final int brushPlaneCount;
+
+	private double[] coords = new double[3 * 64];
+	private final List<IntList> vertexPlanes = new ArrayList<IntList>();
+	private int vertexCount;
+
+	/* vertex loops of the faces, counterclockwise seen from outside */
+	private List<IntList> faces = new ArrayList<IntList>();
+	private IntList facePlanes = new IntList();
+
+	/* per vertex scratch for clipping */
+	private int[] sides = new int[64];
+	private int[] marks = new int[64];
+	private int markStamp;
+
+	private static final int INSIDE = -1;
+	private static final int ON = 0;
+	private static final int OUTSIDE = 1;
+
+	private ConvexBrushBuilder(Plane[] brushPlanes)
+	{
+		brushPlaneCount = brushPlanes.length;
+		planes = new Plane[brushPlaneCount + 6];
+
+		double extent = 0;
+		for (int i = 0; i < brushPlaneCount; i++)
+		{
+			Plane plane = brushPlanes[i];
+			planes[i] = new Plane(plane.A, plane.B, plane.C, plane.D);
+			extent = Math.max(extent, Math.abs(plane.D));
+		}
+		extent = CUBE_SCALE * (extent + 1);
+
+		for (int axis = 0; axis < 3; axis++)
+		{
+			double[] normal = new double[3];
+			normal[axis] = 1;
+			planes[brushPlaneCount + 2 * axis] = new Plane(normal[0],
+					normal[1], normal[2], extent);
+			planes[brushPlaneCount + 2 * axis + 1] = new Plane(-normal[0],
+					-normal[1], -normal[2], extent);
+		}
+		initCube(extent);
+	}
+
+	/**
+	 * Creates the mesh of the brush bounded by the given planes. Polygon i of
+	 * the mesh lies on plane i, planes that don't bound the brush get an empty
+	 * polygon.
+	 */
+	public static CSGMesh build(Plane[] brushPlanes)
+	{
+		return buildTemplate(brushPlanes).Mesh;
+	}
+
+	/**
+	 * Creates the template of the brush bounded by the given planes, see
+	 * build.
+	 */
+	public static BrushTemplate buildTemplate(Plane[] brushPlanes)
+	{
+		ConvexBrushBuilder builder = new ConvexBrushBuilder(brushPlanes);
+		for (int i = 0; i < brushPlanes.length; i++)
+			builder.clip(i);
+		return builder.toTemplate();
+	}
+
+	private void initCube(double extent)
+	{
+		// vertex i has the coordinate +extent on axis a if bit a of i is set
+		for (int i = 0; i < 8; i++)
+		{
+			IntList onPlanes = new IntList();
+			for (int axis = 0; axis < 3; axis++)
+				onPlanes.add(brushPlaneCount + 2 * axis
+						+ (((i >> axis) & 1) != 0 ? 0 : 1));
+			addVertex((i & 1) != 0 ? extent : -extent,
+					(i & 2) != 0 ? extent : -extent, (i & 4) != 0 ? extent
+							: -extent, onPlanes);
+		}
+		addFace(brushPlaneCount, 1, 3, 7, 5);
+		addFace(brushPlaneCount + 1, 0, 4, 6, 2);
+		addFace(brushPlaneCount + 2, 2, 6, 7, 3);
+		addFace(brushPlaneCount + 3, 0, 1, 5, 4);
+		addFace(brushPlaneCount + 4, 4, 5, 7, 6);
+		addFace(brushPlaneCount + 5, 0, 2, 3, 1);
+	}
+
+	private void addFace(int plane, int a, int b, int c, int d)
+	{
+		IntList loop = new IntList();
+		loop.add(a);
+		loop.add(b);
+		loop.add(c);
+		loop.add(d);
+		faces.add(loop);
+		facePlanes.add(plane);
+	}
+
+	private int addVertex(double x, double y, double z, IntList onPlanes)
+	{
+		if (3 * (vertexCount + 1) > coords.length)
+			coords = Arrays.copyOf(coords, 2 * coords.length);
+		if (vertexCount == sides.length)
+		{
+			sides = Arrays.copyOf(sides, 2 * sides.length);
+			marks = Arrays.copyOf(marks, 2 * marks.length);
+		}
+		coords[3 * vertexCount] = x;
+		coords[3 * vertexCount + 1] = y;
+		coords[3 * vertexCount + 2] = z;
+		vertexPlanes.add(onPlanes);
+		return vertexCount++;
+	}
+
+	// Clips the polytope by the given plane
+	private void clip(int planeIndex)
+	{
+		Plane plane = planes[planeIndex];
+
+		// classify the vertices of the polytope
+		int insideCount = 0;
+		int outsideCount = 0;
+		markStamp++;
+		for (IntList loop : faces)
+		{
+			for (int i = 0; i < loop.size(); i++)
+			{
+				int vertex = loop.get(i);
+				if (marks[vertex] == markStamp)
+					continue;
+				marks[vertex] = markStamp;
+
+				int offset = 3 * vertex;
+				double distance = plane.Distance(coords[offset],
+						coords[offset + 1], coords[offset + 2]);
+				if (distance > VarsConstants.DistanceEpsilon)
+				{
+					sides[vertex] = OUTSIDE;
+					outsideCount++;
+				} else if (distance < -VarsConstants.DistanceEpsilon)
+				{
+					sides[vertex] = INSIDE;
+					insideCount++;
+				} else
+				{
+					sides[vertex] = ON;
+					vertexPlanes.get(vertex).add(planeIndex);
+				}
+			}
+		}
+
+		if (outsideCount == 0)
+			return;
+		if (insideCount == 0)
+		{
+			// nothing is left of the brush
+			faces.clear();
+			facePlanes.clear();
+			return;
+		}
+
+		List<IntList> clippedFaces = new ArrayList<IntList>(faces.size() + 1);
+		IntList clippedPlanes = new IntList(faces.size() + 1);
+		/* vertices created on the edges, by the edge's vertices */
+		HashMap<Long, Integer> edgeVertices = new HashMap<Long, Integer>();
+
+		for (int f = 0; f < faces.size(); f++)
+		{
+			IntList loop = faces.get(f);
+			boolean hasInside = false;
+			boolean hasOutside = false;
+			for (int i = 0; i < loop.size(); i++)
+			{
+				hasInside |= sides[loop.get(i)] == INSIDE;
+				hasOutside |= sides[loop.get(i)] == OUTSIDE;
+			}
+
+			if (!hasOutside)
+			{
+				clippedFaces.add(loop);
+				clippedPlanes.add(facePlanes.get(f));
+				continue;
+			}
+			if (!hasInside)
+				continue;
+
+			IntList clipped = new IntList(loop.size() + 1);
+			for (int i = 0; i < loop.size(); i++)
+			{
+				int current = loop.get(i);
+				int next = loop.get((i + 1) % loop.size());
+				if (sides[current] != OUTSIDE)
+					clipped.add(current);
+				if (sides[current] * sides[next] < 0)
+					clipped.add(edgeVertex(edgeVertices, current, next,
+							planeIndex));
+			}
+			if (clipped.size() >= 3)
+			{
+				clippedFaces.add(clipped);
+				clippedPlanes.add(facePlanes.get(f));
+			}
+		}
+
+		IntList cap = cap(clippedFaces);
+		if (cap != null)
+		{
+			clippedFaces.add(cap);
+			clippedPlanes.add(planeIndex);
+		}
+		faces = clippedFaces;
+		facePlanes = clippedPlanes;
+	}
+
+	// Returns the vertex where the plane cuts the edge between the given
+	// vertices, creating it for the first face that visits the edge
+	private int edgeVertex(HashMap<Long, Integer> edgeVertices, int a, int b,
+			int planeIndex)
+	{
+		Long key = BrushTemplate.edgeKey(Math.min(a, b), Math.max(a, b));
+		Integer vertex = edgeVertices.get(key);
+		if (vertex != null)
+			return vertex;
+
+		// the edge lies on the planes both vertices lie on
+		IntList planesA = vertexPlanes.get(a);
+		IntList planesB = vertexPlanes.get(b);
+		IntList onPlanes = new IntList();
+		for (int i = 0; i < planesA.size(); i++)
+			if (planesB.contains(planesA.get(i)))
+				onPlanes.add(planesA.get(i));
+		onPlanes.add(planeIndex);
+
+		int[] sorted = onPlanes.toArray();
+		Arrays.sort(sorted);
+		Vector3 position = BrushTemplate.intersection(planes, sorted);
+		if (position == null)
+		{
+			// no proper intersection, interpolate along the edge
+			Plane plane = planes[planeIndex];
+			int offsetA = 3 * a;
+			int offsetB = 3 * b;
+			double distanceA = plane.Distance(coords[offsetA],
+					coords[offsetA + 1], coords[offsetA + 2]);
+			double distanceB = plane.Distance(coords[offsetB],
+					coords[offsetB + 1], coords[offsetB + 2]);
+			double t = distanceA / (distanceA - distanceB);
+			position = new Vector3(coords[offsetA] + t
+					* (coords[offsetB] - coords[offsetA]), coords[offsetA + 1]
+					+ t * (coords[offsetB + 1] - coords[offsetA + 1]),
+					coords[offsetA + 2] + t
+							* (coords[offsetB + 2] - coords[offsetA + 2]));
+		}
+
+		int newVertex = addVertex(position.X, position.Y, position.Z, onPlanes);
+		sides[newVertex] = ON;
+		marks[newVertex] = markStamp;
+		edgeVertices.put(key, newVertex);
+		return newVertex;
+	}
+
+	// Returns the loop closing the hole the clip cut into the faces, or null.
+	// The hole is bounded by the half-edges on the plane whose twins were cut
+	// away, only edges between vertices on the plane can lie on it.
+	private IntList cap(List<IntList> clippedFaces)
+	{
+		HashMap<Long, Integer> onEdges = new HashMap<Long, Integer>();
+		for (IntList loop : clippedFaces)
+			for (int i = 0; i < loop.size(); i++)
+			{
+				int a = loop.get(i);
+				int b = loop.get((i + 1) % loop.size());
+				if (sides[a] == ON && sides[b] == ON)
+					onEdges.put(BrushTemplate.edgeKey(a, b), a);
+			}
+
+		// the cap runs along the boundary in opposite direction
+		HashMap<Integer, Integer> capNext = new HashMap<Integer, Integer>();
+		int start = -1;
+		for (Long edge : onEdges.keySet())
+		{
+			int a = onEdges.get(edge);
+			int b = (int) edge.longValue();
+			if (!onEdges.containsKey(BrushTemplate.edgeKey(b, a)))
+			{
+				capNext.put(b, a);
+				start = b;
+			}
+		}
+		if (capNext.size() < 3)
+			return null;
+
+		IntList cap = new IntList(capNext.size());
+		int vertex = start;
+		do
+		{
+			cap.add(vertex);
+			Integer next = capNext.get(vertex);
+			if (next == null || cap.size() > capNext.size())
+				return null;
+			vertex = next;
+		} while (vertex != start);
+		return cap;
+	}
+
+	private BrushTemplate toTemplate()
+	{
+		// faces on the cube's planes are left open, the brush is unbounded
+		int[][] brushFaces = new int[brushPlaneCount][];
+		for (int f = 0; f < faces.size(); f++)
+			if (facePlanes.get(f) < brushPlaneCount)
+				brushFaces[facePlanes.get(f)] = faces.get(f).toArray();
+
+		int[][] onPlanes = new int[vertexCount][];
+		for (int vertex = 0; vertex < vertexCount; vertex++)
+			onPlanes[vertex] = vertexPlanes.get(vertex).toArray();
+
+		return new BrushTemplate(Arrays.copyOf(planes, brushPlaneCount),
+				coords, onPlanes, brushFaces);
+	}
+}
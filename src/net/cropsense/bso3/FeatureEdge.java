@@ -11,40 +11,59 @@ import java.util.ArrayDeque;
  */
 public class FeatureEdge extends Feature
 {
-	public HalfEdge edge;
-	public HalfEdge twin;
-	public Vector3 edgeStart;
-	public Vector3 edgeEnd;
+	public CSGMesh mesh;
+	public int edge;
+	public int twin;
+	public int startVertex;
+	public int endVertex;
 	public ArrayDeque<FeatureVertex> correspondingFeatures;
 	
-	public FeatureEdge(HalfEdge edge, HalfEdge twin, Vector3 edgeStart, Vector3 edgeEnd)
+	public FeatureEdge(CSGMesh mesh, int edge, int twin, int startVertex, int endVertex)
 	{
+		this.mesh = mesh;
 		this.edge = edge;
 		this.twin = twin;
-		this.edgeStart = edgeStart;
-		this.edgeEnd = edgeEnd;
+		this.startVertex = startVertex;
+		this.endVertex = endVertex;
 		this.correspondingFeatures = new ArrayDeque<FeatureVertex>();
 	}
 	
+	/**
+	 * @return current position of the edge's start vertex
+	 */
+	public Vector3 edgeStart()
+	{
+		return mesh.getVertex(startVertex);
+	}
+	
+	/**
+	 * @return current position of the edge's end vertex
+	 */
+	public Vector3 edgeEnd()
+	{
+		return mesh.getVertex(endVertex);
+	}
+	
 	@Override
 	public double getDistanceToFeature(Feature feature)
 	{
 		if ( feature instanceof FeatureVertex )
 		{
 			/* the feature's Vertex */
-			Vector3 point = ( ((FeatureVertex) feature).point );
+			Vector3 point = ( ((FeatureVertex) feature).point() );
 			
 			/*
 			 *  construct edge directional vector from edgeStart, edgeEnd
 			 */
-			Vector3 edgeDirection = Vector3.minus(this.edgeStart, this.edgeEnd);
+			Vector3 edgeStart = edgeStart();
+			Vector3 edgeDirection = Vector3.minus(edgeStart, edgeEnd());
 			edgeDirection.Normalize();
 			
 			/* see Schneider/Eberly "Geometric Tools for Computer Graphics ", sec. 10.2, for distance point to line calculation
 			 * point is Q, edgeStart is P
 			 */
-			double t = edgeDirection.DotProduct( ( Vector3.minus(point, this.edgeStart) ) );
-			Vector3 qPrime =  Vector3.plus(this.edgeStart, Vector3.mult(t, edgeDirection));
+			double t = edgeDirection.DotProduct( ( Vector3.minus(point, edgeStart) ) );
+			Vector3 qPrime =  Vector3.plus(edgeStart, Vector3.mult(t, edgeDirection));
 			Vector3 vec = Vector3.minus(point, qPrime);
 			
 			/* Schneider/Eberly are computing distance squared, not euclidean distance, so take square root */
@@ -58,16 +77,17 @@ public class FeatureEdge extends Feature
 		/*
 		 *  construct edge directional vector from edgeStart, edgeEnd
 		 */
-		Vector3 edgeDirection = Vector3.minus(this.edgeStart, this.edgeStart);
+		Vector3 edgeStart = edgeStart();
+		Vector3 edgeDirection = Vector3.minus(edgeStart, edgeStart);
 		Vector3 edgeDirectionHat = new Vector3(edgeDirection);
 		edgeDirectionHat.Normalize();
 		
 		/* see Schneider/Eberly "Geometric Tools for Computer Graphics ", sec. 10.2, for distance point to line calculation
 		 * vertex is Q, edgeStart is P
 		 */
-		Vector3 QminusP = Vector3.minus(vertex, this.edgeStart);
+		Vector3 QminusP = Vector3.minus(vertex, edgeStart);
 		double t = Vector3.DotProduct(edgeDirectionHat, QminusP);
-		Vector3 qPrime =  Vector3.plus(this.edgeEnd, Vector3.mult(t, edgeDirection));
+		Vector3 qPrime =  Vector3.plus(edgeEnd(), Vector3.mult(t, edgeDirection));
 		
 		return qPrime;
 	}
@@ -83,10 +103,12 @@ public class FeatureEdge extends Feature
 	public boolean orthogonalProjectionOntoEdge(Vector3 vertex)
 	{
 		Vector3 qPrime = getOrthogonalProjectionOntoEdge(vertex);
+		Vector3 edgeStart = edgeStart();
+		Vector3 edgeEnd = edgeEnd();
 		
 		if ( 
-				( this.edgeStart.Distance(qPrime) <= this.edgeStart.Distance(this.edgeEnd) )  &&
-				( this.edgeEnd.Distance(qPrime) <= this.edgeEnd.Distance(this.edgeStart) ) 
+				( edgeStart.Distance(qPrime) <= edgeStart.Distance(edgeEnd) )  &&
+				( edgeEnd.Distance(qPrime) <= edgeEnd.Distance(edgeStart) ) 
 		   )
 		return true;
 		
@@ -98,9 +120,12 @@ public class FeatureEdge extends Feature
 		this.correspondingFeatures.add(vertex);
 	}
 	
-	public Vector3 getNearestEdgeVertex(Vector3 point)
+	/**
+	 * @return index of the edge vertex nearest to point
+	 */
+	public int getNearestEdgeVertex(Vector3 point)
 	{
-		if (point.Distance(this.edgeStart) <= point.Distance(edgeEnd)) return this.edgeStart;
-		else return this.edgeEnd;
+		if (point.Distance(edgeStart()) <= point.Distance(edgeEnd())) return this.startVertex;
+		else return this.endVertex;
 	}
 }
@@ -11,11 +11,21 @@ import java.util.ArrayList;
  */
 public class FeatureVertex extends Feature
 {
-	public Vector3 point;
+	public CSGMesh mesh;
+	public int vertex;
 	
-	public FeatureVertex(Vector3 point)
+	public FeatureVertex(CSGMesh mesh, int vertex)
 	{
-		this.point = point;
+		this.mesh = mesh;
+		this.vertex = vertex;
+	}
+	
+	/**
+	 * @return current position of this feature's vertex
+	 */
+	public Vector3 point()
+	{
+		return mesh.getVertex(vertex);
 	}
 	
 	@Override
@@ -24,7 +34,7 @@ public class FeatureVertex extends Feature
 		if ( feature instanceof FeatureVertex )
 		{
 			/* cast to FeatureVertex as calculate distance to it's point */
-			return point.Distance( ((FeatureVertex) feature).point );
+			return point().Distance( ((FeatureVertex) feature).point() );
 		}
 		else if ( feature instanceof FeatureEdge )
 		{
@@ -37,6 +47,8 @@ public class FeatureVertex extends Feature
 	
 	public void findNearestBoundaryEdge(ArrayList<Feature> boundaryFeatures)
 	{
+		Vector3 point = point();
+		
 		for (Feature feature : boundaryFeatures)
 		{
 			if ( feature instanceof FeatureEdge )
@@ -44,7 +56,7 @@ public class FeatureVertex extends Feature
 				FeatureEdge featureEdge = (FeatureEdge) feature;
 				
 				/* incidence check, if edge is incident to vertex, skip */
-				if ( featureEdge.edgeStart == this.point || featureEdge.edgeEnd == this.point  ) {continue;}
+				if ( featureEdge.startVertex == this.vertex || featureEdge.endVertex == this.vertex  ) {continue;}
 				/* also continue if vertices of other edge are nearly the same */
 				//if ( featureEdge.edgeStart.Distance(this.point) < VarsConstants.DistanceEpsilon || featureEdge.edgeEnd.Distance(this.point) < VarsConstants.DistanceEpsilon ) {continue;}
 				
@@ -63,21 +75,21 @@ public class FeatureVertex extends Feature
 		 */
 		FeatureEdge nearestEdge = (FeatureEdge) this.nearestFeature;
 		/* orthogonal projection doesn't fall onto edge, set nearest vertex of edge as nearest feature instead */
-		if ( !nearestEdge.orthogonalProjectionOntoEdge(this.point) )
+		if ( !nearestEdge.orthogonalProjectionOntoEdge(point) )
 		{
 			//System.out.println("projection doesn't fall onto edge.");
 				
 			/* get nearest vertex incident to edge */
-			Vector3 nearestEdgeVertex = nearestEdge.getNearestEdgeVertex(this.point);
+			int nearestEdgeVertex = nearestEdge.getNearestEdgeVertex(point);
 			/* look up FeatureVertex for this vertex */
 			for ( Feature feature2 : boundaryFeatures )
 			{
 				if ( feature2 instanceof FeatureVertex )
 				{
 					FeatureVertex featureVertex = (FeatureVertex) feature2;
-					if ( featureVertex.point == nearestEdgeVertex )
+					if ( featureVertex.vertex == nearestEdgeVertex )
 					{
-						this.distanceToNearestFeature = this.point.Distance(nearestEdgeVertex);
+						this.distanceToNearestFeature = point.Distance(featureVertex.point());
 						this.nearestFeature = featureVertex;
 						break;
 					}
@@ -14,6 +14,7 @@ public class InfiniteLine
 	public Vector3 origin;
 	private Vector3 direction;
 	private Plane Plane1, Plane2;
+	private double tolerance;
 	private ArrayList<PointOnLine> Points;
 		
 	private boolean pointsSorted;
@@ -23,9 +24,11 @@ public class InfiniteLine
 	 * 
 	 * @param origin vector where the originates ( start if edge this line is derived from )
 	 * @param direction direction vector for the line in the planes' intersection ( start - end of edge this line is derived from )
+	 * @param tolerance maximum distance of the vertices of an edge on this line from the intersecting planes
 	 */
-	public InfiniteLine(Vector3 origin, Vector3 direction)
+	public InfiniteLine(Vector3 origin, Vector3 direction, double tolerance)
 	{
+		this.tolerance = tolerance;
 		this.origin = origin;
 		this.direction = direction;
 		
@@ -56,10 +59,10 @@ public class InfiniteLine
 	 */
 	public boolean EdgeOnLine(Vector3 edgeStart, Vector3 edgeEnd)
 	{
-		if ( Math.abs( this.Plane1.Distance(edgeStart) ) > VarsConstants.PointOnLineTolerance ) return false;
-		if ( Math.abs( this.Plane2.Distance(edgeStart) ) > VarsConstants.PointOnLineTolerance ) return false;
-		if ( Math.abs( this.Plane1.Distance(edgeEnd) ) > VarsConstants.PointOnLineTolerance ) return false;
-		if ( Math.abs( this.Plane2.Distance(edgeEnd) ) > VarsConstants.PointOnLineTolerance ) return false;
+		if ( Math.abs( this.Plane1.Distance(edgeStart) ) > this.tolerance ) return false;
+		if ( Math.abs( this.Plane2.Distance(edgeStart) ) > this.tolerance ) return false;
+		if ( Math.abs( this.Plane1.Distance(edgeEnd) ) > this.tolerance ) return false;
+		if ( Math.abs( this.Plane2.Distance(edgeEnd) ) > this.tolerance ) return false;
 		
 		return true;
 	}
@@ -67,16 +70,17 @@ public class InfiniteLine
 	/**
 	 * Adds a point to this line. Make sure to check, if your point is lying on this line by calling EdgeOnLine first!
 	 * 
+	 * @param vertexIndex index of the point's vertex in the mesh
 	 * @param point Point to add to this InfiniteLine. Points are ordered by their distance from the line's origin.
 	 */
-	public void addPoint(Vector3 point)
+	public void addPoint(int vertexIndex, Vector3 point)
 	{
 		/* project point onto this infinite line */
 		Vector3 projPoint = projectPointOntoLine(point);
 		
 		/* calculate distance from line's origin, weighted with (opposite) line's direction of projected point*/
 		double distance  = Math.signum(this.direction.DotProduct(point)) * this.origin.Distance(point);
-		PointOnLine linePoint = new PointOnLine(point, projPoint, distance);
+		PointOnLine linePoint = new PointOnLine(vertexIndex, point, projPoint, distance);
 		
 		this.Points.add(linePoint);
 		this.pointsSorted = false;
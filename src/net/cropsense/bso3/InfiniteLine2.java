@@ -3,6 +3,8 @@ package net.cropsense.bso3;
 import java.util.ArrayList;
 import java.util.Collections;
 
+import de.grogra.xl.util.IntList;
+
 /**
  * This class implements an infiniteLine, the intersection of two perpendicular planes, and an ordered set of points
  * lying on this line. Points are ordered by their distance from the line's origin.
@@ -14,9 +16,10 @@ public class InfiniteLine2
 {
 	public Vector3 origin;
 	private Vector3 direction;
-	private HalfEdge inducingEdge;
+	private int inducingEdge;
 	private Plane Plane1, Plane2;
-	private ArrayList<HalfEdge> edgesOnLine;
+	private double tolerance;
+	private IntList edgesOnLine;
 	private ArrayList<PointOnLine> Points;
 	
 	private boolean pointsSorted;
@@ -26,9 +29,11 @@ public class InfiniteLine2
 	 * 
 	 * @param origin vector where the originates ( start if edge this line is derived from )
 	 * @param direction direction vector for the line in the planes' intersection ( start - end of edge this line is derived from )
+	 * @param tolerance maximum distance of the vertices of an edge on this line from the intersecting planes
 	 */
-	public InfiniteLine2(Vector3 origin, Vector3 direction, HalfEdge inducingEdge)
+	public InfiniteLine2(Vector3 origin, Vector3 direction, int inducingEdge, double tolerance)
 	{
+		this.tolerance = tolerance;
 		this.origin = origin;
 		this.inducingEdge = inducingEdge;
 		this.direction = direction;
@@ -49,7 +54,7 @@ public class InfiniteLine2
 		this.Plane1 = new Plane(Normal1, Vector3.DotProduct(Normal1.Negated(), origin));
 		this.Plane2 = new Plane(Normal2, Vector3.DotProduct(Normal2.Negated(), origin));
 		
-		this.edgesOnLine = new ArrayList<HalfEdge>();
+		this.edgesOnLine = new IntList();
 		this.Points = new ArrayList<PointOnLine>();
 	}
 	
@@ -61,10 +66,10 @@ public class InfiniteLine2
 	 */
 	public boolean EdgeOnLine(Vector3 edgeStart, Vector3 edgeEnd)
 	{
-		if ( Math.abs( this.Plane1.Distance(edgeStart) ) > VarsConstants.PointOnLineTolerance ) return false;
-		if ( Math.abs( this.Plane2.Distance(edgeStart) ) > VarsConstants.PointOnLineTolerance ) return false;
-		if ( Math.abs( this.Plane1.Distance(edgeEnd) ) > VarsConstants.PointOnLineTolerance ) return false;
-		if ( Math.abs( this.Plane2.Distance(edgeEnd) ) > VarsConstants.PointOnLineTolerance ) return false;
+		if ( Math.abs( this.Plane1.Distance(edgeStart) ) > this.tolerance ) return false;
+		if ( Math.abs( this.Plane2.Distance(edgeStart) ) > this.tolerance ) return false;
+		if ( Math.abs( this.Plane1.Distance(edgeEnd) ) > this.tolerance ) return false;
+		if ( Math.abs( this.Plane2.Distance(edgeEnd) ) > this.tolerance ) return false;
 		
 		return true;
 	}
@@ -74,7 +79,7 @@ public class InfiniteLine2
 	 * 
 	 * @param point Point to add to this InfiniteLine. Points are ordered by their distance from the line's origin.
 	 */
-	public void addEdge(HalfEdge edge)
+	public void addEdge(int edge)
 	{	
 		this.edgesOnLine.add(edge);
 	}
@@ -84,15 +89,15 @@ public class InfiniteLine2
 	 * 
 	 * @return Points on this line in order of their distance from the line's origin.
 	 */
-	ArrayList<HalfEdge> getEdgesOnLine()
+	IntList getEdgesOnLine()
 	{
 		return this.edgesOnLine;
 	}
 	
 	/**
-	 * return the edge inducing this infinite line
+	 * return the index of the half-edge inducing this infinite line
 	 */
-	public HalfEdge getInducingEdge()
+	public int getInducingEdge()
 	{
 		return this.inducingEdge;
 	}
@@ -100,16 +105,17 @@ public class InfiniteLine2
 	/**
 	 * Adds a point to this line. Make sure to check, if your point is lying on this line by calling EdgeOnLine first!
 	 * 
+	 * @param vertexIndex index of the point's vertex in the mesh
 	 * @param point Point to add to this InfiniteLine. Points are ordered by their distance from the line's origin.
 	 */
-	public void addPoint(Vector3 point)
+	public void addPoint(int vertexIndex, Vector3 point)
 	{
 		/* project point onto this infinite line */
 		Vector3 projPoint = projectPointOntoLine(point);
 		
 		/* calculate distance from line's origin, weighted with (opposite) line's direction of projected point*/
 		double distance  = Math.signum(this.direction.DotProduct(point)) * this.origin.Distance(point);
-		PointOnLine linePoint = new PointOnLine(point, projPoint, distance);
+		PointOnLine linePoint = new PointOnLine(vertexIndex, point, projPoint, distance);
 		
 		this.Points.add(linePoint);
 		this.pointsSorted = false;
@@ -0,0 +1,124 @@
+package net.cropsense.bso3;
+
+/**
+ * This class represents an 18-DOP, a discrete oriented polytope bounded by
+ * nine pairs of planes: the coordinate axes and the diagonals of the
+ * coordinate planes. Rotated primitives like the cylinders, cones and
+ * frusta of branches fill it much better than their axis aligned box.
+ *
+ * The diagonal axes are not normalized, so the extents along them are
+ * scaled by sqrt(2). That does not matter for the separation tests.
+ *
+ */
+public class KDOP
+{
+	public static final int AXES = 9;
+
+	public final double[] Min = new double[AXES];
+	public final double[] Max = new double[AXES];
+
+	public KDOP()
+	{
+		Clear();
+	}
+
+	public KDOP(KDOP other)
+	{
+		Set(other);
+	}
+
+	public void Clear()
+	{
+		for (int axis = 0; axis < AXES; axis++)
+		{
+			Min[axis] = Double.POSITIVE_INFINITY;
+			Max[axis] = Double.NEGATIVE_INFINITY;
+		}
+	}
+
+	public void Set(KDOP other)
+	{
+		System.arraycopy(other.Min, 0, Min, 0, AXES);
+		System.arraycopy(other.Max, 0, Max, 0, AXES);
+	}
+
+	public void Add(double x, double y, double z)
+	{
+		for (int axis = 0; axis < AXES; axis++)
+		{
+			double value = Project(axis, x, y, z);
+			Min[axis] = Math.min(Min[axis], value);
+			Max[axis] = Math.max(Max[axis], value);
+		}
+	}
+
+	public void Add(KDOP other)
+	{
+		for (int axis = 0; axis < AXES; axis++)
+		{
+			Min[axis] = Math.min(Min[axis], other.Min[axis]);
+			Max[axis] = Math.max(Max[axis], other.Max[axis]);
+		}
+	}
+
+	public void Translate(Vector3 translation)
+	{
+		for (int axis = 0; axis < AXES; axis++)
+		{
+			double offset = Project(axis, translation.X, translation.Y,
+					translation.Z);
+			Min[axis] += offset;
+			Max[axis] += offset;
+		}
+	}
+
+	public KDOP Translated(Vector3 translation)
+	{
+		KDOP result = new KDOP(this);
+		result.Translate(translation);
+		return result;
+	}
+
+	// Projects a point onto one of the axes: x, y, z, x+y, x-y, x+z, x-z,
+	// y+z, y-z
+	static double Project(int axis, double x, double y, double z)
+	{
+		switch (axis)
+		{
+		case 0:
+			return x;
+		case 1:
+			return y;
+		case 2:
+			return z;
+		case 3:
+			return x + y;
+		case 4:
+			return x - y;
+		case 5:
+			return x + z;
+		case 6:
+			return x - z;
+		case 7:
+			return y + z;
+		default:
+			return y - z;
+		}
+	}
+
+	// Like AABB.IsOutside: polytopes that touch within DistanceEpsilon are
+	// not outside of each other
+	public static boolean IsOutside(KDOP left, Vector3 translation, KDOP right)
+	{
+		final double epsilon = VarsConstants.DistanceEpsilon;
+		for (int axis = 0; axis < AXES; axis++)
+		{
+			double offset = Project(axis, translation.X, translation.Y,
+					translation.Z);
+			if ((left.Max[axis] + offset) - right.Min[axis] < -epsilon
+					|| (left.Min[axis] + offset) - right.Max[axis] > epsilon)
+				return true;
+		}
+		return false;
+	}
+}
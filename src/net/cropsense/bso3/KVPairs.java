@@ -1,6 +1,9 @@
 package net.cropsense.bso3;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -8,6 +11,10 @@ import java.util.Map;
 /**
  * class representing a key/value dictionary
  * 
+ * Keys and values are kept in insertion order, lookups go through a hash
+ * index from key to position. Keys are compared with equals/hashCode, or by
+ * identity if the dictionary is created with identityKeys.
+ * 
  * @author Patrick Kaster
  *
  * @param <K> key
@@ -17,11 +24,24 @@ public class KVPairs<K extends Object, V extends Object>
 {
 	private List<K> keys;
 	private List<V> values;
+	private Map<Object, Integer> index;
 
 	public KVPairs()
+	{
+		this(false);
+	}
+
+	/**
+	 * @param identityKeys compare keys by identity instead of equals
+	 */
+	public KVPairs(boolean identityKeys)
 	{
 		keys = new ArrayList<K>();
 		values = new ArrayList<V>();
+		if (identityKeys)
+			index = new IdentityHashMap<Object, Integer>();
+		else
+			index = new HashMap<Object, Integer>();
 	}
 
 	public int size()
@@ -36,7 +56,7 @@ public class KVPairs<K extends Object, V extends Object>
 
 	public boolean containsKey(Object key)
 	{
-		return keys.contains(key);
+		return index.containsKey(key);
 	}
 
 	public boolean containsValue(Object value)
@@ -46,21 +66,24 @@ public class KVPairs<K extends Object, V extends Object>
 
 	public V get(Object key)
 	{
-		if (!containsKey(key))
+		Integer position = index.get(key);
+		if (position == null)
 			return null;
 		else
 		{
-			return values.get(keys.indexOf(key));
+			return values.get(position);
 		}
 	}
 
 	public void put(K key, V value)
 	{
-		if (keys.contains(key))
+		Integer position = index.get(key);
+		if (position != null)
 		{
-			values.set(keys.indexOf(key), value);
+			values.set(position, value);
 		} else
 		{
+			index.put(key, keys.size());
 			keys.add(key);
 			values.add(value);
 		}
@@ -68,10 +91,14 @@ public class KVPairs<K extends Object, V extends Object>
 
 	public void remove(Object key)
 	{
-		if (keys.contains(key))
+		Integer position = index.remove(key);
+		if (position != null)
 		{
-			values.remove(keys.indexOf(key));
-			keys.remove(key);
+			int removed = position;
+			keys.remove(removed);
+			values.remove(removed);
+			for (int i = removed; i < keys.size(); i++)
+				index.put(keys.get(i), i);
 		}
 	}
 
@@ -85,16 +112,17 @@ public class KVPairs<K extends Object, V extends Object>
 	{
 		keys.clear();
 		values.clear();
+		index.clear();
 	}
 
 	public List<K> keys()
 	{
-		return keys;
+		return Collections.unmodifiableList(keys);
 	}
 
 	public List<V> values()
 	{
-		return values;
+		return Collections.unmodifiableList(values);
 	}
 
 	@SuppressWarnings("unchecked")
@@ -0,0 +1,267 @@
+package net.cropsense.bso3;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Writes the visible polygons of the result meshes of
+ * CSGCategorization.ProcessCSGNodes to binary STL or PLY files. The polygons
+ * are triangulated while writing and the file is written in chunks of a fixed
+ * size, so the memory used does not depend on the size of the meshes.
+ *
+ * The number of triangles is known only after triangulating, it is written
+ * to the header at the end, so the channel must be able to write at a
+ * position.
+ *
+ */
+public class MeshExporter
+{
+	private static final int STL_HEADER_BYTES = 80;
+	private static final int STL_TRIANGLE_BYTES = 50;
+	private static final int PLY_FACE_BYTES = 13;
+	/* digits of the face count in the PLY header, written when it is known */
+	private static final int PLY_COUNT_DIGITS = 10;
+
+	private final ByteBuffer chunk;
+	private final Triangulator3 triangulator = new Triangulator3();
+	/* mesh vertices of the points of the triangulated polygon */
+	private int[] polygonVertices = new int[16];
+
+	public MeshExporter()
+	{
+		this(VarsConstants.ExportChunkBytes);
+	}
+
+	/**
+	 * @param chunkBytes size of the buffer the files are written through, at
+	 *            least the STL header with the triangle count and one triangle
+	 */
+	public MeshExporter(int chunkBytes)
+	{
+		chunk = ByteBuffer.allocateDirect(
+				Math.max(chunkBytes, STL_HEADER_BYTES + 4 + STL_TRIANGLE_BYTES))
+				.order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	public void writeSTL(KVPairs<CSGNode, CSGMesh> meshes, File file)
+			throws IOException
+	{
+		RandomAccessFile out = new RandomAccessFile(file, "rw");
+		try
+		{
+			out.setLength(0);
+			writeSTL(meshes, out.getChannel());
+		}
+		finally
+		{
+			out.close();
+		}
+	}
+
+	public void writePLY(KVPairs<CSGNode, CSGMesh> meshes, File file)
+			throws IOException
+	{
+		RandomAccessFile out = new RandomAccessFile(file, "rw");
+		try
+		{
+			out.setLength(0);
+			writePLY(meshes, out.getChannel());
+		}
+		finally
+		{
+			out.close();
+		}
+	}
+
+	/**
+	 * Writes the triangles as binary STL, the meshes moved by the translation
+	 * of their nodes, starting at the position of the channel.
+	 */
+	public void writeSTL(KVPairs<CSGNode, CSGMesh> meshes, FileChannel channel)
+			throws IOException
+	{
+		long start = channel.position();
+		chunk.clear();
+		for (int i = 0; i < STL_HEADER_BYTES; i++)
+			chunk.put((byte) 0);
+		chunk.putInt(0);
+
+		long triangleCount = 0;
+		for (CSGNode node : meshes.keys())
+		{
+			CSGMesh mesh = meshes.get(node);
+			Vector3 translation = node.Translation;
+			for (int polygon = 0; polygon < mesh.PolygonCount; polygon++)
+			{
+				if (!triangulate(mesh, polygon))
+					continue;
+				// the planes of scaled primitives have scaled normals, STL
+				// needs unit normals
+				Vector3 normal = mesh.Planes[mesh.getPlaneIndex(polygon)]
+						.Normal();
+				normal.Normalize();
+				double[] points = triangulator.getInputCoords();
+				for (int i = 0; i < triangulator.getIndexCount(); i += 3)
+				{
+					if (chunk.remaining() < STL_TRIANGLE_BYTES)
+						flush(channel);
+					chunk.putFloat((float) normal.X);
+					chunk.putFloat((float) normal.Y);
+					chunk.putFloat((float) normal.Z);
+					for (int j = 0; j < 3; j++)
+					{
+						int offset = 3 * triangulator.getIndex(i + j);
+						chunk.putFloat((float) (points[offset] + translation.X));
+						chunk.putFloat((float) (points[offset + 1] + translation.Y));
+						chunk.putFloat((float) (points[offset + 2] + translation.Z));
+					}
+					chunk.putShort((short) 0);
+					triangleCount++;
+				}
+			}
+		}
+		flush(channel);
+
+		if (triangleCount > 0xFFFFFFFFL)
+			throw new IOException("Too many triangles for STL: "
+					+ triangleCount);
+		ByteBuffer count = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+		count.putInt(0, (int) triangleCount);
+		writeAt(channel, count, start + STL_HEADER_BYTES);
+	}
+
+	/**
+	 * Writes the triangles as binary PLY, starting at the position of the
+	 * channel. The vertices of the file are the vertices of the meshes moved by
+	 * the translation of their nodes, shared by the triangles.
+	 */
+	public void writePLY(KVPairs<CSGNode, CSGMesh> meshes, FileChannel channel)
+			throws IOException
+	{
+		long start = channel.position();
+		long vertexCount = 0;
+		for (CSGMesh mesh : meshes.values())
+			vertexCount += mesh.VertexCount;
+		if (vertexCount > Integer.MAX_VALUE)
+			throw new IOException("Too many vertices for PLY: " + vertexCount);
+
+		String header = "ply\n" + "format binary_little_endian 1.0\n"
+				+ "element vertex " + vertexCount + "\n"
+				+ "property float x\n" + "property float y\n"
+				+ "property float z\n" + "element face ";
+		long countPosition = start + header.length();
+		header += digits(0) + "\n" + "property list uchar int vertex_indices\n"
+				+ "end_header\n";
+		chunk.clear();
+		putASCII(header, channel);
+
+		for (CSGNode node : meshes.keys())
+		{
+			CSGMesh mesh = meshes.get(node);
+			Vector3 translation = node.Translation;
+			double[] vertices = mesh.VertexCoords;
+			for (int offset = 0; offset < 3 * mesh.VertexCount; offset += 3)
+			{
+				if (chunk.remaining() < 12)
+					flush(channel);
+				chunk.putFloat((float) (vertices[offset] + translation.X));
+				chunk.putFloat((float) (vertices[offset + 1] + translation.Y));
+				chunk.putFloat((float) (vertices[offset + 2] + translation.Z));
+			}
+		}
+
+		long faceCount = 0;
+		int firstVertex = 0;
+		for (CSGMesh mesh : meshes.values())
+		{
+			for (int polygon = 0; polygon < mesh.PolygonCount; polygon++)
+			{
+				if (!triangulate(mesh, polygon))
+					continue;
+				for (int i = 0; i < triangulator.getIndexCount(); i += 3)
+				{
+					if (chunk.remaining() < PLY_FACE_BYTES)
+						flush(channel);
+					chunk.put((byte) 3);
+					for (int j = 0; j < 3; j++)
+						chunk.putInt(firstVertex
+								+ polygonVertices[triangulator.getIndex(i + j)]);
+					faceCount++;
+				}
+			}
+			firstVertex += mesh.VertexCount;
+		}
+		flush(channel);
+
+		if (faceCount > Integer.MAX_VALUE)
+			throw new IOException("Too many triangles for PLY: " + faceCount);
+		writeAt(channel, ByteBuffer.wrap(digits(faceCount).getBytes("US-ASCII")),
+				countPosition);
+	}
+
+	// Triangulates the polygon if it is visible, returns false if not
+	private boolean triangulate(CSGMesh mesh, int polygon)
+	{
+		int firstEdge = mesh.getFirstIndex(polygon);
+		if (!mesh.isVisible(polygon) || firstEdge == -1)
+			return false;
+
+		triangulator.reset();
+		int pointCount = 0;
+		int edge = firstEdge;
+		do
+		{
+			if (pointCount == polygonVertices.length)
+			{
+				int[] grown = new int[2 * pointCount];
+				System.arraycopy(polygonVertices, 0, grown, 0, pointCount);
+				polygonVertices = grown;
+			}
+			polygonVertices[pointCount++] = mesh.EdgeVertex[edge];
+			int offset = 3 * mesh.EdgeVertex[edge];
+			triangulator.addPoint(mesh.VertexCoords[offset],
+					mesh.VertexCoords[offset + 1], mesh.VertexCoords[offset + 2]);
+			edge = mesh.EdgeNext[edge];
+		} while (edge != firstEdge);
+		triangulator.triangulate(mesh.Planes[mesh.getPlaneIndex(polygon)]
+				.Normal());
+		return true;
+	}
+
+	private void putASCII(String text, FileChannel channel) throws IOException
+	{
+		for (int i = 0; i < text.length(); i++)
+		{
+			if (!chunk.hasRemaining())
+				flush(channel);
+			chunk.put((byte) text.charAt(i));
+		}
+	}
+
+	private void flush(FileChannel channel) throws IOException
+	{
+		chunk.flip();
+		while (chunk.hasRemaining())
+			channel.write(chunk);
+		chunk.clear();
+	}
+
+	private static void writeAt(FileChannel channel, ByteBuffer buffer,
+			long position) throws IOException
+	{
+		while (buffer.hasRemaining())
+			position += channel.write(buffer, position);
+	}
+
+	private static String digits(long value)
+	{
+		String text = Long.toString(value);
+		while (text.length() < PLY_COUNT_DIGITS)
+			text = "0" + text;
+		return text;
+	}
+}
@@ -0,0 +1,260 @@
+package net.cropsense.bso3;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+import de.grogra.xl.util.FloatList;
+import de.grogra.xl.util.IntList;
+
+/**
+ * The triangulated polygons of the result meshes in the indexed form of
+ * GroIMP's PolygonMesh: three indices per triangle, three floats per vertex.
+ *
+ * A mesh vertex is written once for every plane its polygons lie on, not once
+ * for every triangle using it. Polygons on different planes do not share
+ * vertices, so normals computed from the index data stay flat up to the edges
+ * of the mesh.
+ *
+ * The lists keep their arrays between applies, and the buffers handed to
+ * exporters wrap these arrays, so neither GroIMP's PolygonMesh nor an
+ * exporter copies the triangles.
+ *
+ */
+public class MeshOutput
+{
+	public final IntList Indices;
+	public final FloatList Vertices;
+
+	/* indices as unsigned shorts, created on request */
+	private short[] shortIndices;
+
+	/* output vertex of every mesh vertex, valid if its stamp is the current */
+	private int[] outputVertex = new int[16];
+	private int[] vertexStamps = new int[16];
+	private int stamp;
+	/* mesh vertices of the points of the polygon being triangulated */
+	private int[] polygonVertices = new int[16];
+	/* polygons to write, grouped by plane, and the start of every group */
+	private int[] polygons = new int[16];
+	private int[] planeStarts = new int[16];
+
+	public MeshOutput()
+	{
+		this(new IntList(), new FloatList());
+	}
+
+	public MeshOutput(IntList indices, FloatList vertices)
+	{
+		Indices = indices;
+		Vertices = vertices;
+	}
+
+	public void clear()
+	{
+		Indices.clear();
+		Vertices.clear();
+		shortIndices = null;
+	}
+
+	public int getVertexCount()
+	{
+		return Vertices.size() / 3;
+	}
+
+	public int getTriangleCount()
+	{
+		return Indices.size() / 3;
+	}
+
+	/**
+	 * Returns a buffer of the indices that shares the array of Indices, valid
+	 * until the output is changed.
+	 */
+	public IntBuffer getIndexBuffer()
+	{
+		return IntBuffer.wrap(Indices.elements, 0, Indices.size());
+	}
+
+	/**
+	 * Returns a buffer of the vertex coordinates that shares the array of
+	 * Vertices, valid until the output is changed.
+	 */
+	public FloatBuffer getVertexBuffer()
+	{
+		return FloatBuffer.wrap(Vertices.elements, 0, Vertices.size());
+	}
+
+	/**
+	 * Returns the indices as unsigned 16 bit values, to be read with
+	 * (index & 0xFFFF), or null if there are more vertices than 16 bits can
+	 * address.
+	 */
+	public short[] getShortIndices()
+	{
+		if (getVertexCount() > 0x10000)
+			return null;
+		if (shortIndices == null)
+		{
+			int[] indices = Indices.elements;
+			shortIndices = new short[Indices.size()];
+			for (int i = 0; i < shortIndices.length; i++)
+				shortIndices[i] = (short) indices[i];
+		}
+		return shortIndices;
+	}
+
+	/**
+	 * Reserves the space for the polygons of the given visibility of the
+	 * meshes, a polygon with n vertices has at most n - 2 triangles.
+	 */
+	public void reserve(Iterable<CSGMesh> meshes, boolean visibility)
+	{
+		int vertexCount = getVertexCount();
+		int indexCount = Indices.size();
+		for (CSGMesh mesh : meshes)
+		{
+			for (int polygon = 0; polygon < mesh.PolygonCount; polygon++)
+			{
+				int firstEdge = mesh.getFirstIndex(polygon);
+				if (mesh.isVisible(polygon) != visibility || firstEdge == -1)
+					continue;
+				int n = loopLength(mesh, firstEdge);
+				vertexCount += n;
+				indexCount += 3 * Math.max(n - 2, 0);
+			}
+		}
+		Vertices.ensureCapacity(3 * vertexCount);
+		Indices.ensureCapacity(indexCount);
+	}
+
+	/**
+	 * Triangulates the polygons of the given visibility of the mesh and
+	 * appends them moved by the translation. The boundary edges of the
+	 * polygons are added to the given list unless it is null.
+	 */
+	public void add(CSGMesh mesh, Vector3 translation, boolean visibility,
+			Triangulator3 triangulator, IntList boundaryEdges)
+	{
+		int planeCount = mesh.Planes.length;
+		int polygonCount = groupByPlane(mesh, visibility);
+		if (polygonCount == 0)
+			return;
+		shortIndices = null;
+		if (outputVertex.length < mesh.VertexCount)
+		{
+			outputVertex = new int[mesh.VertexCount];
+			vertexStamps = new int[mesh.VertexCount];
+			stamp = 0;
+		}
+
+		int[] edgeNext = mesh.EdgeNext;
+		int[] edgeVertex = mesh.EdgeVertex;
+		double[] vertices = mesh.VertexCoords;
+		for (int plane = 0; plane < planeCount; plane++)
+		{
+			if (planeStarts[plane] == planeStarts[plane + 1])
+				continue;
+			if (++stamp == 0)
+			{
+				Arrays.fill(vertexStamps, 0);
+				stamp = 1;
+			}
+
+			Vector3 normal = mesh.Planes[plane].Normal();
+			for (int i = planeStarts[plane]; i < planeStarts[plane + 1]; i++)
+			{
+				triangulator.reset();
+				int pointCount = 0;
+				int firstEdge = mesh.getFirstIndex(polygons[i]);
+				int edge = firstEdge;
+				do
+				{
+					if (boundaryEdges != null && mesh.isBoundaryEdge(edge))
+						boundaryEdges.add(edge);
+					int vertex = edgeVertex[edge];
+					int offset = 3 * vertex;
+					triangulator.addPoint(vertices[offset],
+							vertices[offset + 1], vertices[offset + 2]);
+					if (pointCount == polygonVertices.length)
+						polygonVertices = grow(polygonVertices);
+					polygonVertices[pointCount++] = vertex;
+					edge = edgeNext[edge];
+				} while (edge != firstEdge);
+
+				triangulator.triangulate(normal);
+				for (int j = 0; j < triangulator.getIndexCount(); j++)
+					Indices.add(outputVertex(polygonVertices[triangulator
+							.getIndex(j)], vertices, translation));
+			}
+		}
+	}
+
+	private int outputVertex(int vertex, double[] vertices, Vector3 translation)
+	{
+		if (vertexStamps[vertex] != stamp)
+		{
+			int offset = 3 * vertex;
+			vertexStamps[vertex] = stamp;
+			outputVertex[vertex] = getVertexCount();
+			Vertices.add((float) (vertices[offset] + translation.X));
+			Vertices.add((float) (vertices[offset + 1] + translation.Y));
+			Vertices.add((float) (vertices[offset + 2] + translation.Z));
+		}
+		return outputVertex[vertex];
+	}
+
+	// Sorts the polygons of the given visibility by their plane, the polygons
+	// of plane p are polygons[planeStarts[p]] to polygons[planeStarts[p + 1]]
+	private int groupByPlane(CSGMesh mesh, boolean visibility)
+	{
+		int planeCount = mesh.Planes.length;
+		if (planeStarts.length < planeCount + 1)
+			planeStarts = new int[planeCount + 1];
+		Arrays.fill(planeStarts, 0, planeCount + 1, 0);
+
+		int count = 0;
+		for (int polygon = 0; polygon < mesh.PolygonCount; polygon++)
+		{
+			if (mesh.isVisible(polygon) == visibility
+					&& mesh.getFirstIndex(polygon) != -1)
+			{
+				planeStarts[mesh.getPlaneIndex(polygon)]++;
+				count++;
+			}
+		}
+		// the end of every group, moved to its start while filling it
+		for (int plane = 1; plane < planeCount; plane++)
+			planeStarts[plane] += planeStarts[plane - 1];
+		planeStarts[planeCount] = count;
+
+		if (polygons.length < count)
+			polygons = new int[count];
+		for (int polygon = mesh.PolygonCount - 1; polygon >= 0; polygon--)
+		{
+			if (mesh.isVisible(polygon) == visibility
+					&& mesh.getFirstIndex(polygon) != -1)
+				polygons[--planeStarts[mesh.getPlaneIndex(polygon)]] = polygon;
+		}
+		return count;
+	}
+
+	private static int loopLength(CSGMesh mesh, int firstEdge)
+	{
+		int n = 0;
+		int edge = firstEdge;
+		do
+		{
+			n++;
+			edge = mesh.EdgeNext[edge];
+		} while (edge != firstEdge);
+		return n;
+	}
+
+	private static int[] grow(int[] array)
+	{
+		int[] result = new int[2 * array.length];
+		System.arraycopy(array, 0, result, 0, array.length);
+		return result;
+	}
+}
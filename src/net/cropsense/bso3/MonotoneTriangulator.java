@@ -0,0 +1,454 @@
+package net.cropsense.bso3;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.TreeSet;
+
+import de.grogra.xl.util.IntList;
+
+/**
+ * Triangulates a simple polygon in O(n log n): the polygon is projected to
+ * the coordinate plane its normal is closest to, partitioned into y-monotone
+ * polygons by a sweep line, and every monotone polygon is triangulated along
+ * its two chains, see de Berg et al., "Computational Geometry", chapter 3.
+ *
+ * Unlike ear clipping, the cost does not grow quadratically with the many
+ * collinear points the mesh filters insert on the edges of a polygon.
+ *
+ */
+public class MonotoneTriangulator
+{
+	private static final int START = 0;
+	private static final int END = 1;
+	private static final int SPLIT = 2;
+	private static final int MERGE = 3;
+	private static final int REGULAR = 4;
+
+	/* projected points, counterclockwise */
+	private double[] x = new double[16];
+	private double[] y = new double[16];
+	private int n;
+
+	private int[] types = new int[16];
+	/* points on the left chain of the monotone piece being triangulated */
+	private boolean[] leftChain = new boolean[16];
+	private int[] helpers = new int[16];
+	private Integer[] order = new Integer[16];
+
+	/* neighbours of every point in the partition, polygon edges and diagonals */
+	private final List<IntList> neighbours = new ArrayList<IntList>();
+	private final List<IntList> usedEdges = new ArrayList<IntList>();
+
+	/* y of the sweep line and x of the point searched in the status */
+	private double sweepY;
+	private double searchX;
+
+	/* edges directly left of the polygon's interior, by the sweep line */
+	private final TreeSet<Integer> status = new TreeSet<Integer>(
+			new Comparator<Integer>()
+			{
+				public int compare(Integer a, Integer b)
+				{
+					double ax = xAtSweep(a);
+					double bx = xAtSweep(b);
+					if (ax != bx)
+						return ax < bx ? -1 : 1;
+					// an edge through the searched point lies left of it
+					if (a.intValue() == -1 || b.intValue() == -1)
+						return a.intValue() == -1 ? 1 : -1;
+					return a.intValue() - b.intValue();
+				}
+			});
+
+	/**
+	 * Appends the triangles of the polygon to the given list, 3 point indices
+	 * per triangle in the order of the polygon.
+	 *
+	 * @param coords the points of the polygon, 3 coordinates per point
+	 * @param pointCount number of points
+	 * @param nx x of the normal of the polygon
+	 * @param ny y of the normal of the polygon
+	 * @param nz z of the normal of the polygon
+	 * @return false if the polygon is not simple and no triangles were added
+	 */
+	public boolean triangulate(double[] coords, int pointCount, double nx,
+			double ny, double nz, IntList triangles)
+	{
+		project(coords, pointCount, nx, ny, nz);
+
+		int triangleStart = triangles.size();
+		if (!partition() || !triangulatePieces(triangles))
+		{
+			triangles.setSize(triangleStart);
+			return false;
+		}
+		return true;
+	}
+
+	// Drops the coordinate the normal is largest in, swapping the others if
+	// needed to keep the polygon counterclockwise
+	private void project(double[] coords, int pointCount, double nx,
+			double ny, double nz)
+	{
+		n = pointCount;
+		if (x.length < n)
+		{
+			int capacity = Math.max(n, 2 * x.length);
+			x = new double[capacity];
+			y = new double[capacity];
+			types = new int[capacity];
+			leftChain = new boolean[capacity];
+			helpers = new int[capacity];
+			order = new Integer[capacity];
+		}
+
+		int axisU, axisV;
+		double ax = Math.abs(nx), ay = Math.abs(ny), az = Math.abs(nz);
+		if (az >= ax && az >= ay)
+		{
+			axisU = nz > 0 ? 0 : 1;
+			axisV = nz > 0 ? 1 : 0;
+		} else if (ax >= ay)
+		{
+			axisU = nx > 0 ? 1 : 2;
+			axisV = nx > 0 ? 2 : 1;
+		} else
+		{
+			axisU = ny > 0 ? 2 : 0;
+			axisV = ny > 0 ? 0 : 2;
+		}
+		for (int i = 0; i < n; i++)
+		{
+			x[i] = coords[3 * i + axisU];
+			y[i] = coords[3 * i + axisV];
+		}
+	}
+
+	// point a is above point b for the sweep, ties are broken by x and
+	// then by index
+	private boolean above(int a, int b)
+	{
+		if (y[a] != y[b])
+			return y[a] > y[b];
+		if (x[a] != x[b])
+			return x[a] < x[b];
+		return a < b;
+	}
+
+	// twice the signed area of the triangle a, b, c
+	private double orient(int a, int b, int c)
+	{
+		return (x[b] - x[a]) * (y[c] - y[a]) - (y[b] - y[a]) * (x[c] - x[a]);
+	}
+
+	// x of the edge from point i to point i + 1 at the sweep line, -1 is
+	// the searched point
+	private double xAtSweep(int edge)
+	{
+		if (edge == -1)
+			return searchX;
+		int a = edge;
+		int b = edge + 1 == n ? 0 : edge + 1;
+		if (y[a] == y[b])
+			return Math.max(x[a], x[b]);
+		double t = (sweepY - y[a]) / (y[b] - y[a]);
+		return x[a] + t * (x[b] - x[a]);
+	}
+
+	// Returns the edge directly left of point i
+	private int leftEdge(int i)
+	{
+		searchX = x[i];
+		Integer edge = status.lower(-1);
+		return edge == null ? -1 : edge;
+	}
+
+	// Adds diagonals that split the polygon into y-monotone pieces
+	private boolean partition()
+	{
+		neighbours.clear();
+		usedEdges.clear();
+		for (int i = 0; i < n; i++)
+		{
+			IntList list = new IntList(4);
+			list.add(i + 1 == n ? 0 : i + 1);
+			list.add(i == 0 ? n - 1 : i - 1);
+			neighbours.add(list);
+			usedEdges.add(new IntList(4));
+		}
+
+		for (int i = 0; i < n; i++)
+		{
+			int previous = i == 0 ? n - 1 : i - 1;
+			int next = i + 1 == n ? 0 : i + 1;
+			boolean convex = orient(previous, i, next) > 0;
+			if (above(i, previous) && above(i, next))
+				types[i] = convex ? START : SPLIT;
+			else if (above(previous, i) && above(next, i))
+				types[i] = convex ? END : MERGE;
+			else
+				types[i] = REGULAR;
+			order[i] = i;
+		}
+
+		Arrays.sort(order, 0, n, new Comparator<Integer>()
+		{
+			public int compare(Integer a, Integer b)
+			{
+				return a.equals(b) ? 0 : above(a, b) ? -1 : 1;
+			}
+		});
+
+		status.clear();
+		for (int k = 0; k < n; k++)
+		{
+			int i = order[k];
+			int previous = i == 0 ? n - 1 : i - 1;
+			sweepY = y[i];
+
+			switch (types[i])
+			{
+				case START:
+					status.add(i);
+					helpers[i] = i;
+					break;
+				case END:
+					if (!status.remove(previous))
+						return false;
+					if (types[helpers[previous]] == MERGE)
+						addDiagonal(i, helpers[previous]);
+					break;
+				case SPLIT:
+				{
+					int left = leftEdge(i);
+					if (left == -1)
+						return false;
+					addDiagonal(i, helpers[left]);
+					helpers[left] = i;
+					status.add(i);
+					helpers[i] = i;
+					break;
+				}
+				case MERGE:
+				{
+					if (!status.remove(previous))
+						return false;
+					if (types[helpers[previous]] == MERGE)
+						addDiagonal(i, helpers[previous]);
+					int left = leftEdge(i);
+					if (left == -1)
+						return false;
+					if (types[helpers[left]] == MERGE)
+						addDiagonal(i, helpers[left]);
+					helpers[left] = i;
+					break;
+				}
+				default:
+					if (above(previous, i))
+					{
+						// the interior lies right of the point
+						if (!status.remove(previous))
+							return false;
+						if (types[helpers[previous]] == MERGE)
+							addDiagonal(i, helpers[previous]);
+						status.add(i);
+						helpers[i] = i;
+					} else
+					{
+						int left = leftEdge(i);
+						if (left == -1)
+							return false;
+						if (types[helpers[left]] == MERGE)
+							addDiagonal(i, helpers[left]);
+						helpers[left] = i;
+					}
+			}
+		}
+		return true;
+	}
+
+	private void addDiagonal(int a, int b)
+	{
+		if (a == b || neighbours.get(a).contains(b))
+			return;
+		neighbours.get(a).add(b);
+		neighbours.get(b).add(a);
+	}
+
+	// Walks the pieces the diagonals split the polygon into and triangulates
+	// them
+	private boolean triangulatePieces(IntList triangles)
+	{
+		IntList piece = new IntList();
+		for (int start = 0; start < n; start++)
+		{
+			IntList startNeighbours = neighbours.get(start);
+			for (int e = 0; e < startNeighbours.size(); e++)
+			{
+				// the reversed polygon edge at 1 runs along the outside
+				int first = startNeighbours.get(e);
+				if (e == 1 || isUsed(start, first))
+					continue;
+
+				piece.clear();
+				int from = start;
+				int to = first;
+				do
+				{
+					if (isUsed(from, to) || piece.size() > n)
+						return false;
+					usedEdges.get(from).add(to);
+					piece.add(from);
+					int next = nextClockwise(to, from);
+					from = to;
+					to = next;
+				} while (from != start || to != first);
+
+				if (!triangulateMonotone(piece, triangles))
+					return false;
+			}
+		}
+		return true;
+	}
+
+	private boolean isUsed(int from, int to)
+	{
+		return usedEdges.get(from).contains(to);
+	}
+
+	// Returns the neighbour of point p that follows the direction to point q
+	// clockwise
+	private int nextClockwise(int p, int q)
+	{
+		IntList list = neighbours.get(p);
+		double reference = Math.atan2(y[q] - y[p], x[q] - x[p]);
+		int best = -1;
+		double bestAngle = Double.POSITIVE_INFINITY;
+		for (int i = 0; i < list.size(); i++)
+		{
+			int r = list.get(i);
+			if (r == q)
+				continue;
+			// clockwise angle from q to r in (0, 2 pi]
+			double angle = reference
+					- Math.atan2(y[r] - y[p], x[r] - x[p]);
+			while (angle <= 0)
+				angle += 2 * Math.PI;
+			if (angle < bestAngle)
+			{
+				bestAngle = angle;
+				best = r;
+			}
+		}
+		return best == -1 ? q : best;
+	}
+
+	// Triangulates a y-monotone piece given counterclockwise
+	private boolean triangulateMonotone(IntList piece, IntList triangles)
+	{
+		int k = piece.size();
+		if (k < 3)
+			return false;
+
+		// the left chain runs counterclockwise from the top to the bottom
+		int top = 0;
+		int bottom = 0;
+		for (int i = 1; i < k; i++)
+		{
+			if (above(piece.get(i), piece.get(top)))
+				top = i;
+			if (above(piece.get(bottom), piece.get(i)))
+				bottom = i;
+		}
+		// merge the chains into the order of the sweep
+		int[] sorted = new int[k];
+		sorted[0] = piece.get(top);
+		int count = 1;
+		int l = (top + 1) % k;
+		int r = (top + k - 1) % k;
+		while (l != bottom || r != bottom)
+		{
+			boolean takeLeft = r == bottom
+					|| (l != bottom && above(piece.get(l), piece.get(r)));
+			if (takeLeft)
+			{
+				leftChain[piece.get(l)] = true;
+				sorted[count++] = piece.get(l);
+				l = (l + 1) % k;
+			} else
+			{
+				leftChain[piece.get(r)] = false;
+				sorted[count++] = piece.get(r);
+				r = (r + k - 1) % k;
+			}
+		}
+		sorted[count] = piece.get(bottom);
+		boolean[] left = leftChain;
+
+		int[] stack = new int[k];
+		int size = 0;
+		stack[size++] = sorted[0];
+		stack[size++] = sorted[1];
+		for (int j = 2; j < k - 1; j++)
+		{
+			int u = sorted[j];
+			if (left[u] != left[stack[size - 1]])
+			{
+				// connect to all points on the other chain
+				while (size > 1)
+				{
+					addTriangle(u, stack[size - 1], stack[size - 2], triangles);
+					size--;
+				}
+				size = 0;
+				stack[size++] = sorted[j - 1];
+				stack[size++] = u;
+			} else
+			{
+				int last = stack[--size];
+				while (size > 0)
+				{
+					int v = stack[size - 1];
+					// the diagonal from u to v runs inside
+					double turn = left[u] ? orient(v, last, u) : orient(u,
+							last, v);
+					if (!(turn > 0))
+						break;
+					addTriangle(u, last, v, triangles);
+					last = v;
+					size--;
+				}
+				stack[size++] = last;
+				stack[size++] = u;
+			}
+		}
+
+		int u = sorted[k - 1];
+		while (size > 1)
+		{
+			addTriangle(u, stack[size - 1], stack[size - 2], triangles);
+			size--;
+		}
+		return true;
+	}
+
+	// Adds the triangle counterclockwise, leaving out empty triangles
+	private void addTriangle(int a, int b, int c, IntList triangles)
+	{
+		double area = orient(a, b, c);
+		if (area == 0)
+			return;
+		triangles.add(a);
+		if (area > 0)
+		{
+			triangles.add(b);
+			triangles.add(c);
+		} else
+		{
+			triangles.add(c);
+			triangles.add(b);
+		}
+	}
+}
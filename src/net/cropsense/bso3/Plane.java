@@ -162,25 +162,25 @@ public class Plane
 
 	public PlaneSideResult OnSide(AABB bounds)
 	{
-		int x = A >= 0 ? bounds.MinX : bounds.MaxX;
-		int y = B >= 0 ? bounds.MinY : bounds.MaxY;
-		int z = C >= 0 ? bounds.MinZ : bounds.MaxZ;
+		double x = A >= 0 ? bounds.MinX : bounds.MaxX;
+		double y = B >= 0 ? bounds.MinY : bounds.MaxY;
+		double z = C >= 0 ? bounds.MinZ : bounds.MaxZ;
 		return OnSide(Distance(x, y, z));
 	}
 
 	public PlaneSideResult OnSide(AABB bounds, Vector3 translation)
 	{
-		int backward_x = A <= 0 ? bounds.MinX : bounds.MaxX;
-		int backward_y = B <= 0 ? bounds.MinY : bounds.MaxY;
-		int backward_z = C <= 0 ? bounds.MinZ : bounds.MaxZ;
+		double backward_x = A <= 0 ? bounds.MinX : bounds.MaxX;
+		double backward_y = B <= 0 ? bounds.MinY : bounds.MaxY;
+		double backward_z = C <= 0 ? bounds.MinZ : bounds.MaxZ;
 		double distance = Distance(backward_x + translation.X, backward_y
 				+ translation.Y, backward_z + translation.Z);
 		PlaneSideResult side = OnSide(distance);
 		if (side == PlaneSideResult.Inside)
 			return PlaneSideResult.Inside;
-		int forward_x = A >= 0 ? bounds.MinX : bounds.MaxX;
-		int forward_y = B >= 0 ? bounds.MinY : bounds.MaxY;
-		int forward_z = C >= 0 ? bounds.MinZ : bounds.MaxZ;
+		double forward_x = A >= 0 ? bounds.MinX : bounds.MaxX;
+		double forward_y = B >= 0 ? bounds.MinY : bounds.MaxY;
+		double forward_z = C >= 0 ? bounds.MinZ : bounds.MaxZ;
 		distance = Distance(forward_x + translation.X, forward_y
 				+ translation.Y, forward_z + translation.Z);
 		side = OnSide(distance);
@@ -222,8 +222,24 @@ public class Plane
 
 	public int GetHashCode()
 	{
-		return new Float(A).hashCode() ^ new Float(B).hashCode()
-				^ new Float(C).hashCode() ^ new Float(D).hashCode();
+		return hashCode();
+	}
+
+	// consistent with equals, 0.0 and -0.0 are equal and hash alike
+	public int hashCode()
+	{
+		int hash = 17;
+		hash = 31 * hash + hashOf(A);
+		hash = 31 * hash + hashOf(B);
+		hash = 31 * hash + hashOf(C);
+		hash = 31 * hash + hashOf(D);
+		return hash;
+	}
+
+	private static int hashOf(double value)
+	{
+		long bits = Double.doubleToLongBits(value + 0.0);
+		return (int) (bits ^ (bits >>> 32));
 	}
 
 	public boolean equals(Object obj)
@@ -0,0 +1,151 @@
+package net.cropsense.bso3;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import de.grogra.xl.util.IntList;
+
+/**
+ * Assigns canonical IDs to planes. Planes whose normals differ by less than
+ * NormalEpsilon and whose distances differ by less than DistanceEpsilon get
+ * the same ID, so coplanarity of two registered planes is an ID comparison.
+ * Every ID is linked to the ID of the plane with opposite orientation, if
+ * that plane is registered as well.
+ *
+ * Planes are sorted into a grid of cells with the epsilons as cell size.
+ * Registering a plane checks the neighbouring cells for a plane within the
+ * epsilons, looking up only checks the plane's own cell. A lookup that
+ * misses only means that callers have to fall back to a geometric test.
+ *
+ */
+public class PlaneRegistry
+{
+	private final HashMap<Key, Integer> ids = new HashMap<Key, Integer>();
+	private final List<Plane> planes = new ArrayList<Plane>();
+	private final IntList opposites = new IntList();
+
+	public int size()
+	{
+		return planes.size();
+	}
+
+	/**
+	 * @return the canonical plane of the given id
+	 */
+	public Plane get(int id)
+	{
+		return planes.get(id);
+	}
+
+	/**
+	 * @return the id of the plane with opposite orientation, or -1
+	 */
+	public int opposite(int id)
+	{
+		return opposites.get(id);
+	}
+
+	/**
+	 * Returns the id of the given plane, registering the plane if there is no
+	 * plane within the epsilons yet.
+	 */
+	public int register(Plane plane)
+	{
+		Key key = new Key(plane);
+		Integer id = ids.get(key);
+		if (id != null)
+			return id;
+
+		int found = findNeighbour(plane, key);
+		if (found != -1)
+		{
+			ids.put(key, found);
+			return found;
+		}
+
+		int newId = planes.size();
+		planes.add(new Plane(plane));
+		ids.put(key, newId);
+
+		int opposite = find(plane.Negated());
+		opposites.add(opposite);
+		if (opposite != -1)
+			opposites.set(opposite, newId);
+		return newId;
+	}
+
+	/**
+	 * Returns the id of the given plane without registering it, or -1
+	 */
+	public int find(Plane plane)
+	{
+		Integer id = ids.get(new Key(plane));
+		return id == null ? -1 : id;
+	}
+
+	private int findNeighbour(Plane plane, Key key)
+	{
+		for (long a = key.A - 1; a <= key.A + 1; a++)
+			for (long b = key.B - 1; b <= key.B + 1; b++)
+				for (long c = key.C - 1; c <= key.C + 1; c++)
+					for (long d = key.D - 1; d <= key.D + 1; d++)
+					{
+						Integer id = ids.get(new Key(a, b, c, d));
+						if (id != null && isCoplanar(planes.get(id), plane))
+							return id;
+					}
+		return -1;
+	}
+
+	private static boolean isCoplanar(Plane a, Plane b)
+	{
+		return Math.abs(a.A - b.A) <= VarsConstants.NormalEpsilon
+				&& Math.abs(a.B - b.B) <= VarsConstants.NormalEpsilon
+				&& Math.abs(a.C - b.C) <= VarsConstants.NormalEpsilon
+				&& Math.abs(a.D - b.D) <= VarsConstants.DistanceEpsilon;
+	}
+
+	/* grid cell of a plane */
+	private static final class Key
+	{
+		final long A;
+		final long B;
+		final long C;
+		final long D;
+
+		Key(Plane plane)
+		{
+			this(Math.round(plane.A / VarsConstants.NormalEpsilon), Math
+					.round(plane.B / VarsConstants.NormalEpsilon), Math
+					.round(plane.C / VarsConstants.NormalEpsilon), Math
+					.round(plane.D / VarsConstants.DistanceEpsilon));
+		}
+
+		Key(long a, long b, long c, long d)
+		{
+			A = a;
+			B = b;
+			C = c;
+			D = d;
+		}
+
+		public int hashCode()
+		{
+			long hash = A;
+			hash = 31 * hash + B;
+			hash = 31 * hash + C;
+			hash = 31 * hash + D;
+			return (int) (hash ^ (hash >>> 32));
+		}
+
+		public boolean equals(Object obj)
+		{
+			if (!(obj instanceof Key))
+				return false;
+			Key other = (Key) obj;
+			return A == other.A && B == other.B && C == other.C
+					&& D == other.D;
+		}
+	}
+}
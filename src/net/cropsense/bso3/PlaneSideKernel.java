@@ -0,0 +1,71 @@
+package net.cropsense.bso3;
+
+/**
+ * Classifies a batch of vertices against a batch of planes in one pass.
+ *
+ * The vertices are passed packed as x, y, z triples, so the inner loop runs
+ * over a flat array without touching the mesh's half-edges. For every plane
+ * the sides of all vertices are or-ed into a mask. SIDE_INSIDE is set if a
+ * vertex is more than DistanceEpsilon behind the plane, SIDE_OUTSIDE if one
+ * is more than DistanceEpsilon in front of it and SIDE_ON if one is within
+ * DistanceEpsilon of the plane. So a plane with the mask SIDE_INSIDE has all
+ * vertices behind it, one with SIDE_OUTSIDE all in front of it and one with
+ * SIDE_ON all on it, a polygon crossing the plane gets SIDE_INSIDE and
+ * SIDE_OUTSIDE.
+ *
+ */
+public final class PlaneSideKernel
+{
+	public static final int SIDE_INSIDE = 1;
+	public static final int SIDE_ON = 2;
+	public static final int SIDE_OUTSIDE = 4;
+
+	private PlaneSideKernel()
+	{
+	}
+
+	/**
+	 * Computes the side mask of the given vertices for every plane.
+	 *
+	 * @param coords packed vertex coordinates
+	 * @param vertexCount number of vertices in coords
+	 * @param planes planes to classify against
+	 * @param sideMasks receives the side mask of planes[i] at index i
+	 * @return index of the first plane that has all vertices outside, or -1.
+	 *         The masks of the planes after it are not computed.
+	 */
+	public static int classify(double[] coords, int vertexCount,
+			Plane[] planes, int[] sideMasks)
+	{
+		final double epsilon = VarsConstants.DistanceEpsilon;
+		for (int p = 0; p < planes.length; p++)
+		{
+			Plane plane = planes[p];
+			double a = plane.A, b = plane.B, c = plane.C, d = plane.D;
+
+			// count instead of branching on every vertex
+			int insideCount = 0;
+			int outsideCount = 0;
+			for (int i = 0, offset = 0; i < vertexCount; i++, offset += 3)
+			{
+				double distance = a * coords[offset] + b * coords[offset + 1]
+						+ c * coords[offset + 2] - d;
+				insideCount += distance < -epsilon ? 1 : 0;
+				outsideCount += distance > epsilon ? 1 : 0;
+			}
+
+			int mask = 0;
+			if (insideCount > 0)
+				mask |= SIDE_INSIDE;
+			if (outsideCount > 0)
+				mask |= SIDE_OUTSIDE;
+			if (insideCount + outsideCount < vertexCount)
+				mask |= SIDE_ON;
+			sideMasks[p] = mask;
+
+			if (mask == SIDE_OUTSIDE)
+				return p;
+		}
+		return -1;
+	}
+}
@@ -8,12 +8,14 @@ package net.cropsense.bso3;
  */
 public class PointOnLine
 {
+	public int vertexIndex;
 	public Vector3 point;
 	public Vector3 pointProjection;
 	public double weight;
 	
-	public PointOnLine(Vector3 point, Vector3 pointProjection, double weight)
+	public PointOnLine(int vertexIndex, Vector3 point, Vector3 pointProjection, double weight)
 	{
+		this.vertexIndex = vertexIndex;
 		this.point = point;
 		this.pointProjection = pointProjection;
 		this.weight = weight;
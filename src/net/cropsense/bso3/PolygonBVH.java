@@ -0,0 +1,269 @@
+package net.cropsense.bso3;
+
+import java.util.Arrays;
+
+/**
+ * A bounding volume hierarchy over the polygons of a CSGMesh, used by
+ * Intersect to find the polygons whose bounds overlap a cutting brush
+ * without testing all of them.
+ *
+ * The hierarchy covers the polygons that existed when it was built. Bounds
+ * of polygons only shrink when they are split, so the node bounds stay
+ * conservative until the hierarchy is refit. Polygons appended after the
+ * build are not covered and have to be tested by the caller.
+ *
+ * Nodes are stored depth first, the left child of a node directly follows
+ * it, so refitting the nodes in reverse order visits children first.
+ *
+ */
+public class PolygonBVH
+{
+	private static final int LEAF_SIZE = 4;
+
+	private final int polygonCount;
+	private final int[] polygons;
+
+	private int nodeCount;
+	private double[] nodeBounds;
+	private int[] nodeRight;
+	private int[] nodeStart;
+	private int[] nodeSize;
+
+	/* scratch for building */
+	private double[] centers;
+
+	/**
+	 * builds the hierarchy over all current polygons of the mesh
+	 */
+	public PolygonBVH(CSGMesh mesh)
+	{
+		polygonCount = mesh.PolygonCount;
+		polygons = new int[polygonCount];
+		for (int i = 0; i < polygonCount; i++)
+			polygons[i] = i;
+
+		int capacity = Math.max(1, polygonCount);
+		nodeBounds = new double[CSGMesh.BOUNDS_STRIDE * capacity];
+		nodeRight = new int[capacity];
+		nodeStart = new int[capacity];
+		nodeSize = new int[capacity];
+
+		centers = new double[3 * polygonCount];
+		double[] bounds = mesh.PolygonBounds;
+		for (int i = 0; i < polygonCount; i++)
+		{
+			int offset = CSGMesh.BOUNDS_STRIDE * i;
+			for (int axis = 0; axis < 3; axis++)
+				centers[3 * i + axis] = 0.5 * (bounds[offset + axis] + bounds[offset
+						+ 3 + axis]);
+		}
+		if (polygonCount > 0)
+			build(mesh, 0, polygonCount);
+		centers = null;
+	}
+
+	private PolygonBVH(PolygonBVH other)
+	{
+		polygonCount = other.polygonCount;
+		polygons = other.polygons;
+		nodeCount = other.nodeCount;
+		nodeBounds = other.nodeBounds.clone();
+		nodeRight = other.nodeRight;
+		nodeStart = other.nodeStart;
+		nodeSize = other.nodeSize;
+	}
+
+	/**
+	 * @return a copy that can be refit without affecting this hierarchy
+	 */
+	public PolygonBVH copy()
+	{
+		return new PolygonBVH(this);
+	}
+
+	/**
+	 * @return number of polygons covered by the hierarchy
+	 */
+	public int size()
+	{
+		return polygonCount;
+	}
+
+	private int build(CSGMesh mesh, int start, int size)
+	{
+		int node = nodeCount++;
+		if (node >= nodeRight.length)
+			grow();
+
+		nodeStart[node] = start;
+		int offset = CSGMesh.BOUNDS_STRIDE * node;
+		clear(offset);
+		for (int i = start; i < start + size; i++)
+			addPolygon(mesh.PolygonBounds, offset, polygons[i]);
+
+		if (size <= LEAF_SIZE)
+		{
+			nodeSize[node] = size;
+			return node;
+		}
+
+		// split at the median center along the longest axis
+		int axis = 0;
+		double extent = -1;
+		for (int a = 0; a < 3; a++)
+		{
+			double e = nodeBounds[offset + 3 + a] - nodeBounds[offset + a];
+			if (e > extent)
+			{
+				extent = e;
+				axis = a;
+			}
+		}
+		int half = size / 2;
+		select(start, start + size - 1, start + half, axis);
+
+		build(mesh, start, half);
+		// building the children may grow the node arrays
+		int right = build(mesh, start + half, size - half);
+		nodeSize[node] = 0;
+		nodeRight[node] = right;
+		return node;
+	}
+
+	// quickselect, places the k-th polygon by center along axis at index k
+	private void select(int left, int right, int k, int axis)
+	{
+		while (left < right)
+		{
+			double pivot = centers[3 * polygons[(left + right) >>> 1] + axis];
+			int i = left;
+			int j = right;
+			while (i <= j)
+			{
+				while (centers[3 * polygons[i] + axis] < pivot)
+					i++;
+				while (centers[3 * polygons[j] + axis] > pivot)
+					j--;
+				if (i <= j)
+				{
+					int swap = polygons[i];
+					polygons[i] = polygons[j];
+					polygons[j] = swap;
+					i++;
+					j--;
+				}
+			}
+			if (k <= j)
+				right = j;
+			else if (k >= i)
+				left = i;
+			else
+				return;
+		}
+	}
+
+	private void grow()
+	{
+		int capacity = 2 * nodeRight.length;
+		nodeBounds = Arrays.copyOf(nodeBounds, CSGMesh.BOUNDS_STRIDE
+				* capacity);
+		nodeRight = Arrays.copyOf(nodeRight, capacity);
+		nodeStart = Arrays.copyOf(nodeStart, capacity);
+		nodeSize = Arrays.copyOf(nodeSize, capacity);
+	}
+
+	private void clear(int offset)
+	{
+		for (int axis = 0; axis < 3; axis++)
+		{
+			nodeBounds[offset + axis] = Double.POSITIVE_INFINITY;
+			nodeBounds[offset + 3 + axis] = Double.NEGATIVE_INFINITY;
+		}
+	}
+
+	private void addPolygon(double[] polygonBounds, int offset, int polygon)
+	{
+		int polygonOffset = CSGMesh.BOUNDS_STRIDE * polygon;
+		for (int axis = 0; axis < 3; axis++)
+		{
+			nodeBounds[offset + axis] = Math.min(nodeBounds[offset + axis],
+					polygonBounds[polygonOffset + axis]);
+			nodeBounds[offset + 3 + axis] = Math.max(nodeBounds[offset + 3
+					+ axis], polygonBounds[polygonOffset + 3 + axis]);
+		}
+	}
+
+	/**
+	 * recalculates the node bounds from the current polygon bounds, keeping
+	 * the structure of the hierarchy
+	 */
+	public void refit(CSGMesh mesh)
+	{
+		for (int node = nodeCount - 1; node >= 0; node--)
+		{
+			int offset = CSGMesh.BOUNDS_STRIDE * node;
+			clear(offset);
+			if (nodeSize[node] > 0)
+			{
+				int end = nodeStart[node] + nodeSize[node];
+				for (int i = nodeStart[node]; i < end; i++)
+					addPolygon(mesh.PolygonBounds, offset, polygons[i]);
+			} else
+			{
+				int left = CSGMesh.BOUNDS_STRIDE * (node + 1);
+				int right = CSGMesh.BOUNDS_STRIDE * nodeRight[node];
+				for (int axis = 0; axis < 3; axis++)
+				{
+					nodeBounds[offset + axis] = Math.min(
+							nodeBounds[left + axis], nodeBounds[right + axis]);
+					nodeBounds[offset + 3 + axis] = Math.max(nodeBounds[left
+							+ 3 + axis], nodeBounds[right + 3 + axis]);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Marks every covered polygon whose bounds may overlap the given bounds
+	 * by setting marks[polygon] to stamp.
+	 *
+	 * @param bounds bounds to test against, in the mesh's space
+	 * @param marks receives the stamp for overlapping polygons
+	 * @param stamp value to mark with
+	 */
+	public void query(AABB bounds, int[] marks, int stamp)
+	{
+		if (nodeCount == 0)
+			return;
+
+		final double epsilon = VarsConstants.DistanceEpsilon;
+		int[] stack = new int[64];
+		int top = 0;
+		stack[top++] = 0;
+		while (top > 0)
+		{
+			int node = stack[--top];
+			int offset = CSGMesh.BOUNDS_STRIDE * node;
+			if (bounds.MaxX - nodeBounds[offset] < -epsilon
+					|| bounds.MinX - nodeBounds[offset + 3] > epsilon
+					|| bounds.MaxY - nodeBounds[offset + 1] < -epsilon
+					|| bounds.MinY - nodeBounds[offset + 4] > epsilon
+					|| bounds.MaxZ - nodeBounds[offset + 2] < -epsilon
+					|| bounds.MinZ - nodeBounds[offset + 5] > epsilon)
+				continue;
+
+			if (nodeSize[node] > 0)
+			{
+				int end = nodeStart[node] + nodeSize[node];
+				for (int i = nodeStart[node]; i < end; i++)
+					marks[polygons[i]] = stamp;
+			} else
+			{
+				if (top + 2 > stack.length)
+					stack = Arrays.copyOf(stack, 2 * stack.length);
+				stack[top++] = nodeRight[node];
+				stack[top++] = node + 1;
+			}
+		}
+	}
+}
@@ -0,0 +1,16 @@
+package net.cropsense.bso3;
+
+
+
+/**
+ * Distributions of the planes enclosing a sphere. Grid places the planes on
+ * a latitude/longitude grid, which crowds them near the poles. Fibonacci
+ * spreads the same number of planes evenly over the sphere.
+ * 
+ * @author Patrick Kaster
+ *
+ */
+public enum SphereSampling
+{
+	Grid, Fibonacci
+}
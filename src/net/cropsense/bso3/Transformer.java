@@ -26,7 +26,11 @@ import de.grogra.imp3d.objects.Sphere;
 public class Transformer
 {
 
-	public static CSGNode getNodeFor(Node n)
+	/**
+	 * Creates the brush for the given primitive, sampling round primitives as
+	 * configured in the context.
+	 */
+	public static CSGNode getNodeFor(Node n, CSGContext context)
 	{
 		if (!(n instanceof Box || n instanceof Cone || n instanceof Cylinder
 				|| n instanceof Frustum || n instanceof Sphere))
@@ -38,16 +42,16 @@ public class Transformer
 			return toBox((Box) n);
 		} else if (n instanceof Cone)
 		{
-			return toCone((Cone) n);
+			return toCone((Cone) n, context);
 		} else if (n instanceof Cylinder)
 		{
-			return toCylinder((Cylinder) n);
+			return toCylinder((Cylinder) n, context);
 		} else if (n instanceof Frustum)
 		{
-			return toFrustum((Frustum) n);
+			return toFrustum((Frustum) n, context);
 		} else if (n instanceof Sphere)
 		{
-			return toSphere((Sphere) n);
+			return toSphere((Sphere) n, context);
 		}
 
 		return null;
@@ -82,18 +86,72 @@ public class Transformer
 		}
 	}
 
+	/**
+	 * Creates a brush from planes given in the frame of a primitive. Only the
+	 * rotation and scaling of the transformation are applied to the planes,
+	 * the translation becomes the local translation of the node. So equal
+	 * primitives at different positions have equal planes and share their
+	 * mesh, and moving a primitive does not change its planes.
+	 */
+	private static CSGNode createBrush(String id, List<Plane> planes,
+			Matrix4d transformation, BrushTemplate template)
+	{
+		Matrix4d rotation = new Matrix4d(transformation);
+		rotation.m03 = 0;
+		rotation.m13 = 0;
+		rotation.m23 = 0;
+		transformPlanes(planes, rotation);
+
+		CSGNode node = new CSGNode(id, planes);
+		node.LocalTranslation = new Vector3(transformation.m03,
+				transformation.m13, transformation.m23);
+		node.Translation = new Vector3(node.LocalTranslation);
+		node.Template = template;
+		return node;
+	}
+
+	// Returns true if the rotational part of the transformation is a rotation
+	// with uniform scaling, which keeps the topology of a brush
+	private static boolean isSimilarity(Matrix4d t)
+	{
+		double x = t.m00 * t.m00 + t.m10 * t.m10 + t.m20 * t.m20;
+		double y = t.m01 * t.m01 + t.m11 * t.m11 + t.m21 * t.m21;
+		double z = t.m02 * t.m02 + t.m12 * t.m12 + t.m22 * t.m22;
+		double xy = t.m00 * t.m01 + t.m10 * t.m11 + t.m20 * t.m21;
+		double yz = t.m01 * t.m02 + t.m11 * t.m12 + t.m21 * t.m22;
+		double zx = t.m02 * t.m00 + t.m12 * t.m10 + t.m22 * t.m20;
+		double tolerance = 1e-9 * x;
+		double determinant = t.m00 * (t.m11 * t.m22 - t.m12 * t.m21) - t.m01
+				* (t.m10 * t.m22 - t.m12 * t.m20) + t.m02
+				* (t.m10 * t.m21 - t.m11 * t.m20);
+		return x > 0 && Math.abs(x - y) <= tolerance
+				&& Math.abs(x - z) <= tolerance && Math.abs(xy) <= tolerance
+				&& Math.abs(yz) <= tolerance && Math.abs(zx) <= tolerance
+				&& determinant > 0;
+	}
+
 	private static CSGNode toBox(Box object)
 	{
+		Matrix4d transformation = getTransformation(object);
 		List<Plane> planes = boxPlanes(object);
-		transformPlanes(planes, getTransformation(object));
-		return new CSGNode("box", planes);
+		BrushTemplate template = isSimilarity(transformation)
+				&& object.getWidth() > 0 && object.getHeight() > 0
+				&& object.getLength() > 0 ? BrushTemplates.box() : null;
+		return createBrush("box", planes, transformation, template);
 	}
 
 	public static List<Plane> boxPlanes(Box object)
 	{
-		float length = object.getLength(); // = z-axis
-		float halfWidth = object.getWidth() / 2f; // = x-axis
-		float halfHeight = object.getHeight() / 2f; // = y-axis
+		return boxPlanes(object.getWidth(), object.getHeight(), object
+				.getLength());
+	}
+
+	public static List<Plane> boxPlanes(float width, float height,
+			float length)
+	{
+		// length = z-axis
+		float halfWidth = width / 2f; // = x-axis
+		float halfHeight = height / 2f; // = y-axis
 
 		List<Plane> planes = new ArrayList<Plane>();
 		planes.add(new Plane(1., 0., 0., halfWidth));
@@ -106,18 +164,144 @@ public class Transformer
 		return planes;
 	}
 
-	private static CSGNode toCylinder(Cylinder object)
+	/**
+	 * Returns the number of planes around a round primitive of the given
+	 * radius. If the context sets a MaxSamplingError, the count is chosen so
+	 * that the polygon the planes circumscribe around the circle deviates at
+	 * most by that error in world units, otherwise the fixed count is used.
+	 * The primitive's otherPlanes planes, like the caps of a cylinder, count
+	 * towards MaxPlanesSampling.
+	 */
+	public static int planeCount(CSGContext context, double radius,
+			Matrix4d transformation, int fixedCount, int otherPlanes)
+	{
+		if (!(context.MaxSamplingError > 0))
+			return fixedCount;
+
+		int n = circlePlaneCount(transformedRadius(radius, transformation),
+				context.MaxSamplingError, context.MinPlanesSampling);
+		return Math.min(Math.max(context.MinPlanesSampling, n),
+				context.MaxPlanesSampling - otherPlanes);
+	}
+
+	// Returns the smallest number of planes whose circumscribed polygon
+	// deviates at most by error from the circle of the given radius
+	private static int circlePlaneCount(double radius, double error,
+			int minCount)
+	{
+		if (!(radius > 0))
+			return minCount;
+		// the corners of the circumscribed n-gon are r / cos(pi / n) away
+		// from the center
+		double angle = Math.acos(radius / (radius + error));
+		return (int) Math.min(Math.ceil(Math.PI / angle), Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Returns the grid size n of a sphere of the given radius, see spherePlanes,
+	 * the sphere has n (n - 2) planes. If the context sets a MaxSamplingError,
+	 * n is chosen so that no vertex of the planes' polyhedron is further than
+	 * that error in world units from the sphere, as long as there are at most
+	 * MaxPlanesSampling planes.
+	 */
+	public static int sphereGridSize(CSGContext context,
+			SphereSampling sampling, double radius, Matrix4d transformation)
+	{
+		if (!(context.MaxSamplingError > 0))
+			return context.PlanesSamplingSpheres;
+
+		// the smallest grid enclosing the sphere has 4 (4 - 2) planes
+		int maxN = 4;
+		while ((maxN + 1) * (maxN - 1) <= context.MaxPlanesSampling)
+			maxN++;
+
+		double worldRadius = transformedRadius(radius, transformation);
+		// a grid cell is wider than the corresponding side of a circle, so
+		// the count for the circle is a lower bound
+		int n = Math.min(Math.max(4, circlePlaneCount(worldRadius,
+				context.MaxSamplingError, context.MinPlanesSampling)), maxN);
+		if (!(worldRadius > 0))
+			return n;
+		double maxDistance = 1 + context.MaxSamplingError / worldRadius;
+		boolean fibonacci = sampling == SphereSampling.Fibonacci;
+		while (n < maxN
+				&& (fibonacci ? maxVertexDistance(BrushTemplates
+						.sphereFibonacci(n * (n - 2)).Mesh)
+						: sphereGridVertexDistance(n)) > maxDistance)
+			n++;
+		return n;
+	}
+
+	// Returns the largest distance of a vertex of the polyhedron of
+	// spherePlanes(1, n) from the center. Four planes of neighbouring rings
+	// meet at every vertex between the poles, n planes of the first and last
+	// ring at the poles.
+	static double sphereGridVertexDistance(int n)
+	{
+		List<Plane> planes = spherePlanes(1f, n);
+		int rings = n - 2;
+		double distance = 1 / Math.cos(Math.PI / (n - 1));
+		for (int ring = 0; ring + 1 < rings; ring++)
+		{
+			// planes i * rings + ring are on meridian i
+			Vector3 vertex = Plane.Intersection(planes.get(ring), planes
+					.get(rings + ring), planes.get(ring + 1));
+			distance = Math.max(distance, vertex.Length());
+		}
+		return distance;
+	}
+
+	private static double maxVertexDistance(CSGMesh mesh)
+	{
+		double distance = 0;
+		double[] coords = mesh.VertexCoords;
+		for (int offset = 0; offset < 3 * mesh.VertexCount; offset += 3)
+			distance = Math.max(distance, Math.sqrt(coords[offset]
+					* coords[offset] + coords[offset + 1] * coords[offset + 1]
+					+ coords[offset + 2] * coords[offset + 2]));
+		return distance;
+	}
+
+	// Returns the distance from the center of the planes at the given radius
+	// once createBrush transformed them. transformPlanes scales the normals
+	// and keeps D, so a plane with normal n ends up at radius / |M n|. The
+	// largest distance of the planes along the axes is returned, the only
+	// one for a rotation with uniform scaling.
+	private static double transformedRadius(double radius, Matrix4d t)
+	{
+		double distance = 0;
+		for (int axis = 0; axis < 3; axis++)
+		{
+			Vector3d normal = new Vector3d(axis == 0 ? 1 : 0, axis == 1 ? 1
+					: 0, axis == 2 ? 1 : 0);
+			t.transform(normal);
+			double length = normal.length();
+			if (length > 0)
+				distance = Math.max(distance, radius / length);
+		}
+		return distance;
+	}
+
+	private static CSGNode toCylinder(Cylinder object, CSGContext context)
 	{
-		List<Plane> planes = cylinderPlanes(object, 10);
-		transformPlanes(planes, getTransformation(object));
-		return new CSGNode("cylinder", planes);
+		Matrix4d transformation = getTransformation(object);
+		int n = planeCount(context, object.getRadius(), transformation,
+				context.PlanesSamplingCylinders, 2);
+		List<Plane> planes = cylinderPlanes(object, n);
+		BrushTemplate template = n >= 3 && isSimilarity(transformation)
+				&& object.getRadius() > 0 && object.getLength() > 0 ? BrushTemplates
+				.cylinder(n)
+				: null;
+		return createBrush("cylinder", planes, transformation, template);
 	}
 
 	public static List<Plane> cylinderPlanes(Cylinder object, int n)
 	{
-		float length = object.getLength();
-		float radius = object.getRadius();
+		return cylinderPlanes(object.getLength(), object.getRadius(), n);
+	}
 
+	public static List<Plane> cylinderPlanes(float length, float radius, int n)
+	{
 		List<Plane> planes = new ArrayList<Plane>();
 		planes.add(new Plane(0f, 0f, 1f, length));
 		planes.add(new Plane(0f, 0f, -1f, 0f));
@@ -133,17 +317,56 @@ public class Transformer
 		return planes;
 	}
 
-	private static CSGNode toSphere(Sphere object)
+	private static CSGNode toSphere(Sphere object, CSGContext context)
+	{
+		Matrix4d transformation = getTransformation(object);
+		SphereSampling sampling = context.getSphereSampling(object);
+		int n = sphereGridSize(context, sampling, object.getRadius(),
+				transformation);
+		boolean fibonacci = sampling == SphereSampling.Fibonacci;
+		List<Plane> planes = fibonacci ? sphereFibonacciPlanes(object, n
+				* (n - 2)) : spherePlanes(object, n);
+		BrushTemplate template = null;
+		if (n >= 3 && isSimilarity(transformation) && object.getRadius() > 0)
+			template = fibonacci ? BrushTemplates.sphereFibonacci(n * (n - 2))
+					: BrushTemplates.sphere(n);
+		return createBrush("sphere", planes, transformation, template);
+	}
+
+	/**
+	 * Returns count planes tangent to the sphere, with normals on a Fibonacci
+	 * spiral. Neighbouring normals are about equally far apart everywhere, so
+	 * there are no slivers at the poles like with spherePlanes.
+	 */
+	public static List<Plane> sphereFibonacciPlanes(Sphere object, int count)
 	{
-		List<Plane> planes = spherePlanes(object, VarsConstants.PlanesSamplingSpheres);
-		transformPlanes(planes, getTransformation(object));
-		return new CSGNode("sphere", planes);
+		return sphereFibonacciPlanes(object.getRadius(), count);
+	}
+
+	public static List<Plane> sphereFibonacciPlanes(float radius, int count)
+	{
+		double goldenAngle = Math.PI * (3 - Math.sqrt(5));
+
+		List<Plane> planes = new ArrayList<Plane>();
+		for (int i = 0; i < count; ++i)
+		{
+			double z = 1 - (2 * i + 1) / (double) count;
+			double r = Math.sqrt(1 - z * z);
+			double phi = i * goldenAngle;
+			planes.add(new Plane(r * Math.cos(phi), r * Math.sin(phi), z,
+					radius));
+		}
+
+		return planes;
 	}
 
 	public static List<Plane> spherePlanes(Sphere object, int n)
 	{
-		float radius = object.getRadius();
+		return spherePlanes(object.getRadius(), n);
+	}
 
+	public static List<Plane> spherePlanes(float radius, int n)
+	{
 		List<Plane> planes = new ArrayList<Plane>();
 		double phi = 0d;
 		double phi_increment = 2d * Math.PI / n;
@@ -163,27 +386,36 @@ public class Transformer
 		return planes;
 	}
 
-	private static CSGNode toFrustum(Frustum object)
+	private static CSGNode toFrustum(Frustum object, CSGContext context)
 	{
-		List<Plane> planes = frustumPlanes(object, 50);
-		transformPlanes(planes, getTransformation(object));
-		return new CSGNode("frustum", planes);
+		Matrix4d transformation = getTransformation(object);
+		double radius = Math.max(object.getBaseRadius(), object.getTopRadius());
+		return toFrustum(object, transformation, planeCount(context, radius,
+				transformation, context.PlanesSamplingFrusta, 2));
 	}
 
 	public static CSGNode toFrustum(Frustum object, Matrix4d transformation,
 			int numPlanes)
 	{
 		List<Plane> planes = frustumPlanes(object, numPlanes);
-		transformPlanes(planes, transformation);
-		return new CSGNode("frustum", planes);
+		// without a top or base the sides meet in an apex
+		BrushTemplate template = numPlanes >= 3
+				&& isSimilarity(transformation) && object.getTopRadius() > 0
+				&& object.getBaseRadius() > 0 && object.getLength() > 0 ? BrushTemplates
+				.frustum(numPlanes)
+				: null;
+		return createBrush("frustum", planes, transformation, template);
 	}
 
 	public static List<Plane> frustumPlanes(Frustum object, int n)
 	{
-		float length = object.getLength();
-		float topRadius = object.getTopRadius();
-		float baseRadius = object.getBaseRadius();
+		return frustumPlanes(object.getLength(), object.getTopRadius(), object
+				.getBaseRadius(), n);
+	}
 
+	public static List<Plane> frustumPlanes(float length, float topRadius,
+			float baseRadius, int n)
+	{
 		Vector3 x_base = new Vector3(baseRadius, 0, 0);
 		Vector3 x_top = new Vector3(topRadius, 0, length);
 		Vector3 dir = Vector3.Subtract(x_top, x_base);
@@ -218,18 +450,26 @@ public class Transformer
 		return planes;
 	}
 
-	private static CSGNode toCone(Cone object)
+	private static CSGNode toCone(Cone object, CSGContext context)
 	{
-		List<Plane> planes = conePlanes(object, VarsConstants.PlanesSamplingCones);
-		transformPlanes(planes, getTransformation(object));
-		return new CSGNode("cone", planes);
+		Matrix4d transformation = getTransformation(object);
+		int n = planeCount(context, object.getRadius(), transformation,
+				context.PlanesSamplingCones, 1);
+		List<Plane> planes = conePlanes(object, n);
+		BrushTemplate template = n >= 3 && isSimilarity(transformation)
+				&& object.getRadius() > 0 && object.getLength() > 0 ? BrushTemplates
+				.cone(n)
+				: null;
+		return createBrush("cone", planes, transformation, template);
 	}
 
 	public static List<Plane> conePlanes(Cone object, int n)
 	{
-		float length = object.getLength();
-		float radius = object.getRadius();
+		return conePlanes(object.getLength(), object.getRadius(), n);
+	}
 
+	public static List<Plane> conePlanes(float length, float radius, int n)
+	{
 		Vector3 x_base = new Vector3(radius, 0, 0);
 		Vector3 x_top = new Vector3(0, 0, length);
 		Vector3 dir = Vector3.Subtract(x_top, x_base);
@@ -1,26 +1,44 @@
 package net.cropsense.bso3;
 
-import java.util.ArrayList;
+import java.util.AbstractList;
+import java.util.Arrays;
 import java.util.List;
 
+import de.grogra.xl.util.IntList;
+
 
 /**
  * @author Patrick Kaster
  *
  *	This class implements an ear clipping triangulation algorithm, ported from C++, from the book
  * "Mathematics for 3D Game Programming and Computer Graphics, 3rd ed." by Eric Lengyel, Listing 9.2.
+ *
+ * Convex polygons, which are almost all polygons of brush meshes, are triangulated as a fan
+ * without ear clipping, non-convex polygons with many points by the MonotoneTriangulator.
+ * Points, indices and the scratch of the ear clipper are kept in arrays that are reused
+ * after reset(), so one triangulator can convert many polygons without allocating.
  */
 public class Triangulator3
 {
-	private ArrayList<Vector3> inputPoints;
-	private ArrayList<Integer> indices;	
-	
+	/* input points, 3 coordinates per point */
+	private double[] coords;
+	private int pointCount;
+	/* vertex indices of the resulting triangles, 3 per triangle */
+	private int[] indices;
+	private int indexCount;
+	/* points not yet clipped off by the ear clipper */
+	private boolean[] active;
+	/* triangulator of large non-convex polygons and its result */
+	private final MonotoneTriangulator monotoneTriangulator = new MonotoneTriangulator();
+	private final IntList monotoneIndices = new IntList();
+
 	public Triangulator3()
 	{
-		this.inputPoints = new ArrayList<Vector3>();
-		this.indices = new ArrayList<Integer>();
+		this.coords = new double[3 * 16];
+		this.indices = new int[3 * 16];
+		this.active = new boolean[16];
 	}
-	
+
 	/**
 	 * add a 3D vector as input point
 	 * @param x x-value of 3D vector
@@ -29,20 +47,23 @@ public class Triangulator3
 	 */
 	public void addPoint(double x, double y, double z)
 	{
-		Vector3 v = new Vector3(x, y, z);
-		inputPoints.add(v);
+		if (3 * (pointCount + 1) > coords.length)
+			coords = Arrays.copyOf(coords, 2 * coords.length);
+		int offset = 3 * pointCount++;
+		coords[offset] = x;
+		coords[offset + 1] = y;
+		coords[offset + 2] = z;
 	}
-	
+
 	/**
 	 * add a 3D vector as input point
 	 * @param in the Vector to add
 	 */
 	public void addPoint(Vector3 in)
 	{
-		Vector3 v = new Vector3(in);
-		inputPoints.add(v);
+		addPoint(in.X, in.Y, in.Z);
 	}
-		
+
 	int getNextActive(int x, int vertexCount, boolean[] active)
 	{
 		for (;;)
@@ -51,7 +72,7 @@ public class Triangulator3
 			if (active[x]) return (x);
 		}
 	}
-	
+
 	int getPrevActive(int x, int vertexCount, boolean[] active)
 	{
 		for (;;)
@@ -60,143 +81,207 @@ public class Triangulator3
 			if (active[x]) return (x);
 		}
 	}
-	
+
+	private void addTriangle(int a, int b, int c)
+	{
+		if (indexCount + 3 > indices.length)
+			indices = Arrays.copyOf(indices, 2 * indices.length);
+		indices[indexCount++] = a;
+		indices[indexCount++] = b;
+		indices[indexCount++] = c;
+	}
 
 	/**
 	 * Triangulates the polygon defined by the points added to this triangulator object.
 	 * Resulting triangle vertex indices can be obtained via getIndices() methode.
-	 * 
+	 *
 	 * @param normal the normal to the plane the polygon lies on
 	 */
 	public void triangulate(Vector3 normal)
 	{
-		if (inputPoints.size() < 3)
+		if (pointCount < 3)
 		{
 			throw new IllegalArgumentException("polygon must have at least 3 vertices");
 		}
-		
-		ArrayList<Triangle> triangles = new ArrayList<Triangle>();
-		int vertexCount = this.inputPoints.size();
-		
-		boolean[] active = new boolean[vertexCount];
+
+		if (isConvex(normal.X, normal.Y, normal.Z))
+			triangulateFan(normal.X, normal.Y, normal.Z);
+		else if (pointCount < VarsConstants.MonotoneTriangulationPoints
+				|| !triangulateMonotone(normal.X, normal.Y, normal.Z))
+			clipEars(normal.X, normal.Y, normal.Z);
+	}
+
+	// Returns the cross product of the directions from point a to points b
+	// and c, projected on the normal
+	private double cross(int a, int b, int c, double nx, double ny, double nz)
+	{
+		double ux = coords[3 * b] - coords[3 * a];
+		double uy = coords[3 * b + 1] - coords[3 * a + 1];
+		double uz = coords[3 * b + 2] - coords[3 * a + 2];
+		double vx = coords[3 * c] - coords[3 * a];
+		double vy = coords[3 * c + 1] - coords[3 * a + 1];
+		double vz = coords[3 * c + 2] - coords[3 * a + 2];
+		return nx * (uy * vz - uz * vy) + ny * (uz * vx - ux * vz) + nz
+				* (ux * vy - uy * vx);
+	}
+
+	// Returns true if the polygon turns to the same side at every point up
+	// to the epsilon, collinear points are allowed
+	private boolean isConvex(double nx, double ny, double nz)
+	{
+		for (int i = 0; i < pointCount; i++)
+		{
+			int previous = i == 0 ? pointCount - 1 : i - 1;
+			int next = i == pointCount - 1 ? 0 : i + 1;
+			// the direction to the previous point turns to the next point
+			// clockwise around the normal at a convex point
+			double cross = cross(i, next, previous, nx, ny, nz);
+			if (cross < 0
+					&& cross * cross > VarsConstants.epsilonTriangulator3
+							* VarsConstants.epsilonTriangulator3
+							* squaredDistance(i, next)
+							* squaredDistance(i, previous))
+				return false;
+		}
+		return true;
+	}
+
+	private double squaredDistance(int a, int b)
+	{
+		double dx = coords[3 * b] - coords[3 * a];
+		double dy = coords[3 * b + 1] - coords[3 * a + 1];
+		double dz = coords[3 * b + 2] - coords[3 * a + 2];
+		return dx * dx + dy * dy + dz * dz;
+	}
+
+	// Triangulates a convex polygon as a fan around the first point, leaving
+	// out the empty triangles along collinear points
+	private void triangulateFan(double nx, double ny, double nz)
+	{
+		for (int i = 1; i < pointCount - 1; i++)
+		{
+			if (cross(0, i, i + 1, nx, ny, nz) > 0)
+				addTriangle(0, i, i + 1);
+		}
+	}
+
+	// Triangulates the polygon in O(n log n) instead of the quadratic ear
+	// clipping, returns false if the polygon is not simple
+	private boolean triangulateMonotone(double nx, double ny, double nz)
+	{
+		monotoneIndices.clear();
+		if (!monotoneTriangulator.triangulate(coords, pointCount, nx, ny, nz,
+				monotoneIndices))
+			return false;
+		for (int i = 0; i < monotoneIndices.size(); i += 3)
+			addTriangle(monotoneIndices.get(i), monotoneIndices.get(i + 1),
+					monotoneIndices.get(i + 2));
+		return true;
+	}
+
+	// dot product of the unit normal of the edge from a to b, pointing to the
+	// left of the edge, with the direction from point c to point v
+	private double edgeSide(int a, int b, int c, int v, double nx, double ny, double nz)
+	{
+		double ex = coords[3 * b] - coords[3 * a];
+		double ey = coords[3 * b + 1] - coords[3 * a + 1];
+		double ez = coords[3 * b + 2] - coords[3 * a + 2];
+		// normal x edge
+		double sx = ny * ez - nz * ey;
+		double sy = nz * ex - nx * ez;
+		double sz = nx * ey - ny * ex;
+		double dx = coords[3 * v] - coords[3 * c];
+		double dy = coords[3 * v + 1] - coords[3 * c + 1];
+		double dz = coords[3 * v + 2] - coords[3 * c + 2];
+		return (sx * dx + sy * dy + sz * dz)
+				/ Math.sqrt((sx * sx + sy * sy + sz * sz)
+						* (dx * dx + dy * dy + dz * dz));
+	}
+
+	// Returns true if the triangle a, b, c cuts off the point b: b is convex
+	// and no other active point lies in the triangle
+	private boolean isEar(int a, int b, int c, double nx, double ny, double nz)
+	{
+		double eps = VarsConstants.epsilonTriangulator3;
+
+		// b lies on the inner side of the new edge from c to a
+		double ax = coords[3 * a] - coords[3 * c];
+		double ay = coords[3 * a + 1] - coords[3 * c + 1];
+		double az = coords[3 * a + 2] - coords[3 * c + 2];
+		double sx = ny * az - nz * ay;
+		double sy = nz * ax - nx * az;
+		double sz = nx * ay - ny * ax;
+		double length = Math.sqrt(sx * sx + sy * sy + sz * sz);
+		if (!((sx * (coords[3 * b] - coords[3 * c]) + sy
+				* (coords[3 * b + 1] - coords[3 * c + 1]) + sz
+				* (coords[3 * b + 2] - coords[3 * c + 2]))
+				/ length > eps))
+			return false;
+
+		// Look for other vertices inside the triangle.
+		for (int i = 0; i < pointCount; ++i)
+		{
+			if ( (active[i]) && (i != a) && (i != b) && (i != c) )
+			{
+				if ( ( edgeSide(c, a, c, i, nx, ny, nz) > -eps )
+					&& ( edgeSide(a, b, a, i, nx, ny, nz) > -eps )
+					&& ( edgeSide(b, c, b, i, nx, ny, nz) > -eps ) )
+					return false;
+			}
+		}
+		return true;
+	}
+
+	// cosine of the angle at point a between the directions to b and c
+	private double cosine(int a, int b, int c)
+	{
+		double ux = coords[3 * b] - coords[3 * a];
+		double uy = coords[3 * b + 1] - coords[3 * a + 1];
+		double uz = coords[3 * b + 2] - coords[3 * a + 2];
+		double vx = coords[3 * c] - coords[3 * a];
+		double vy = coords[3 * c + 1] - coords[3 * a + 1];
+		double vz = coords[3 * c + 2] - coords[3 * a + 2];
+		return (ux * vx + uy * vy + uz * vz)
+				/ Math.sqrt((ux * ux + uy * uy + uz * uz)
+						* (vx * vx + vy * vy + vz * vz));
+	}
+
+	private void clipEars(double nx, double ny, double nz)
+	{
+		int vertexCount = pointCount;
+
+		if (active.length < vertexCount)
+			active = new boolean[Math.max(vertexCount, 2 * active.length)];
 		for (int i = 0; i < vertexCount; ++i) active[i] = true;
-		
+
 		int start = 0;
 		int p1 = 0;
 		int p2 = 1;
 		int m1 = vertexCount - 1;
 		int m2 = vertexCount - 2;
-		
+
 		boolean lastPositive = false;
-		
+
 		for (;;)
 		{
-			Triangle currentTriangle = new Triangle();
-			
 			if (p2 == m2)
 			{
 				// Only three vertices remain.
-				currentTriangle.index[0] = m1;
-				currentTriangle.index[1] = p1;
-				currentTriangle.index[2] = p2;
-				triangles.add(currentTriangle);
+				addTriangle(m1, p1, p2);
 				break;
 			}
-			
-			Vector3 vp1 = this.inputPoints.get(p1);
-			Vector3 vp2 = this.inputPoints.get(p2);
-			Vector3 vm1 = this.inputPoints.get(m1);
-			Vector3 vm2 = this.inputPoints.get(m2);
-			boolean positive = false;
-			boolean negative = false;
-			
+
 			// Determine whether vp1, vp2, and vm1 form a valid triangle.
-			Vector3 n1 = Vector3.CrossProduct(normal, Vector3.minus(vm1, vp2));
-			n1.Normalize();
-			if ( n1.DotProduct(Vector3.minus(vp1, vp2)) > VarsConstants.epsilonTriangulator3 )
-			{
-				negative = true;
-				Vector3 n2 = Vector3.CrossProduct(normal, Vector3.minus(vm1, vm2));
-				n2.Normalize();
-				Vector3 n3 = Vector3.CrossProduct(normal, Vector3.minus(vp1, vm1));
-				n3.Normalize();
-				
-				for (int i = 0; i < vertexCount; ++i)
-				{
-					// Look for other vertices inside the triangle.
-					if ( (active[i]) && (i != m1) && (i != m2) && (i != p1) )
-					{
-						Vector3 v = this.inputPoints.get(i);
-						Vector3 vminusvp1 = Vector3.minus(v, vp1);
-						vminusvp1.Normalize();
-						Vector3 vminusvm2 = Vector3.minus(v, vm2);
-						vminusvm2.Normalize();
-						Vector3 vminusvm1 = Vector3.minus(v, vm1);
-						vminusvm1.Normalize();
-						
-						if ( ( Vector3.DotProduct(n1, vminusvp1) > -VarsConstants.epsilonTriangulator3 )
-							&& ( Vector3.DotProduct(n2, vminusvm2) > -VarsConstants.epsilonTriangulator3 )
-							&& ( Vector3.DotProduct(n3, vminusvm1) > -VarsConstants.epsilonTriangulator3 ) )
-						{
-							negative = false;
-							break;
-						}
-					}
-				}
-			}
-			
+			boolean positive = isEar(m1, p1, p2, nx, ny, nz);
 			// Determine whether vm1, vm2, and vp1 form a valid triangle.
-			n1 = Vector3.CrossProduct(normal, Vector3.minus(vm2, vp1));
-			n1.Normalize();
-			
-			if ( n1.DotProduct(Vector3.minus(vm1, vp1)) > VarsConstants.epsilonTriangulator3 )
-			{
-				negative = true;
-				Vector3 n2 = Vector3.CrossProduct(normal, Vector3.minus(vm1, vm2));
-				n2.Normalize();
-				Vector3 n3 = Vector3.CrossProduct(normal, Vector3.minus(vp1, vm1));
-				n3.Normalize();
-								
-				for (int i = 0; i < vertexCount; ++i)
-				{
-					// Look for other vertices inside the triangle.
-					if ( (active[i]) && (i != m1) && (i != m2) && (i != p1) )
-					{
-						Vector3 v = this.inputPoints.get(i);
-						Vector3 vminusvp1 = Vector3.minus(v, vp1);
-						vminusvp1.Normalize();
-						Vector3 vminusvm2 = Vector3.minus(v, vm2);
-						vminusvm2.Normalize();
-						Vector3 vminusvm1 = Vector3.minus(v, vm1);
-						vminusvm1.Normalize();
-						if ( ( Vector3.DotProduct(n1, vminusvp1) > -VarsConstants.epsilonTriangulator3 )
-								&& ( Vector3.DotProduct(n2, vminusvm2) > -VarsConstants.epsilonTriangulator3 )
-								&& ( Vector3.DotProduct(n3, vminusvm1) > -VarsConstants.epsilonTriangulator3 ) )
-						{
-							negative = false;
-							break;
-						}
-					}
-				}
-			}
-			
+			boolean negative = isEar(m2, m1, p1, nx, ny, nz);
+
 			// If both triangles are valid, choose the one having the larger smallest angle.
 			if ((positive) && (negative))
 			{
-				Vector3 vp2minusvm1 = Vector3.minus(vp2, vm1);
-				vp2minusvm1.Normalize();
-				Vector3 vm2minusvm1 = Vector3.minus(vm2, vm1);
-				vm2minusvm1.Normalize();
-				
-				double pd = Vector3.DotProduct(vp2minusvm1, vm2minusvm1);
-				
-				Vector3 vm2minusvp1 = Vector3.minus(vm2, vp1);
-				vm2minusvp1.Normalize();
-				Vector3 vp2minusvp1 = Vector3.minus(vp2, vp1);
-				vp2minusvp1.Normalize();
-				
-				double md = Vector3.DotProduct(vm2minusvp1, vp2minusvp1);
-				
+				double pd = cosine(m1, p2, m2);
+				double md = cosine(p1, m2, p2);
+
 				if ( Math.abs(pd - md) < VarsConstants.epsilonTriangulator3 )
 				{
 					if ( lastPositive ) positive = false;
@@ -208,16 +293,13 @@ public class Triangulator3
 					else positive = false;
 				}
 			}
-			
+
 			if (positive)
 			{
 				// Output the triangle m1, p1, p2.
 				active[p1] = false;
-				currentTriangle.index[0] = m1;
-				currentTriangle.index[1] = p1;
-				currentTriangle.index[2] = p2;
-				triangles.add(currentTriangle);
-				
+				addTriangle(m1, p1, p2);
+
 				p1 = getNextActive(p1, vertexCount, active);
 				p2 = getNextActive(p2, vertexCount, active);
 				lastPositive = true;
@@ -227,11 +309,8 @@ public class Triangulator3
 			{
 				// Output the triangle m2, m1, p1.
 				active[m1] = false;
-				currentTriangle.index[0] = m2;
-				currentTriangle.index[1] = m1;
-				currentTriangle.index[2] = p1;
-				triangles.add(currentTriangle);
-				
+				addTriangle(m2, m1, p1);
+
 				m1 = getPrevActive(m1, vertexCount, active);
 				m2 = getPrevActive(m2, vertexCount, active);
 				lastPositive = false;
@@ -243,7 +322,7 @@ public class Triangulator3
 				// polygon without finding a valid triangle.
 				if (start == -1) start = p2;
 				else if (p2 == start) break;
-				
+
 				// Advance working set of vertices.
 				m2 = m1;
 				m1 = p1;
@@ -251,43 +330,83 @@ public class Triangulator3
 				p2 = getNextActive(p2, vertexCount, active);
 			}
 		}
-		
-		// output triangles to index list
-		for ( Triangle triangle : triangles )
-		{
-			this.indices.add(triangle.index[0]);
-			this.indices.add(triangle.index[1]);
-			this.indices.add(triangle.index[2]);
-		}
 	}
-	
+
 	public Vector3 getInputPoint(int index)
 	{
-		return inputPoints.get(index);
+		int offset = 3 * index;
+		return new Vector3(coords[offset], coords[offset + 1], coords[offset + 2]);
 	}
 
 	public List<Vector3> getInputPoints()
 	{
-		return inputPoints;
+		return new AbstractList<Vector3>()
+		{
+			public Vector3 get(int index)
+			{
+				return getInputPoint(index);
+			}
+
+			public int size()
+			{
+				return pointCount;
+			}
+		};
+	}
+
+	/**
+	 * @return the coordinates of the input points, 3 per point
+	 */
+	public double[] getInputCoords()
+	{
+		return coords;
+	}
+
+	public int getInputPointCount()
+	{
+		return pointCount;
 	}
-	
 
 	/**
 	 * get the resulting triangulation
-	 * 
+	 *
 	 * @return List holding the vertex indices of resulting triangulation of polygon
 	 */
 	public List<Integer> getIndices()
 	{
-		return this.indices;
+		return new AbstractList<Integer>()
+		{
+			public Integer get(int index)
+			{
+				return indices[index];
+			}
+
+			public int size()
+			{
+				return indexCount;
+			}
+		};
+	}
+
+	/**
+	 * @return vertex index i of the resulting triangulation
+	 */
+	public int getIndex(int i)
+	{
+		return indices[i];
+	}
+
+	public int getIndexCount()
+	{
+		return indexCount;
 	}
-	
+
 	/**
-	 *	reset this triangulator object 
+	 *	reset this triangulator object
 	 */
 	public void reset()
 	{
-		this.inputPoints = new ArrayList<Vector3>();
-		this.indices = new ArrayList<Integer>();
+		this.pointCount = 0;
+		this.indexCount = 0;
 	}
 }
@@ -4,16 +4,32 @@ package net.cropsense.bso3;
 /**
  * @author Patrick Kaster
  * 
- * class defining global vars and constants
+ * class defining global constants and the default settings of a CSGContext
  */
 public class VarsConstants
 {
 	public static final double DistanceEpsilon = 0.000001;
 	public static final double NormalEpsilon = (1.0 / 65535.0);
-	public static double PointOnLineTolerance = DistanceEpsilon;
+	public static final double PointOnLineTolerance = DistanceEpsilon;
 	public static final double EdgeLengthEpsilon = DistanceEpsilon;
-	public static int PlanesSamplingSpheres = 8;
-	public static int PlanesSamplingCones = 25;
-	public static double DistanceEpsilonWelding = DistanceEpsilon;
+	public static final int PlanesSamplingSpheres = 8;
+	public static final int PlanesSamplingCones = 25;
+	public static final SphereSampling SphereSampling = net.cropsense.bso3.SphereSampling.Grid;
+	public static final int PlanesSamplingCylinders = 10;
+	public static final int PlanesSamplingFrusta = 50;
+	/* adaptive sampling is off by default, see Transformer.planeCount */
+	public static final double MaxSamplingError = 0;
+	public static final int MinPlanesSampling = 6;
+	/* all planes of a primitive, including caps and all rings of a sphere */
+	public static final int MaxPlanesSampling = 64;
+	public static final double DistanceEpsilonWelding = DistanceEpsilon;
 	public static final double epsilonTriangulator3 = 0.001;
+	/* non-convex polygons with this many points are triangulated in O(n log n) */
+	public static final int MonotoneTriangulationPoints = 24;
+	public static final int Threads = 1;
+	public static final boolean DebugBoundaries = false;
+	public static final int MeshCacheEntries = 4096;
+	public static final long MeshCacheBytes = 64L << 20;
+	/* size of the buffer MeshExporter writes files through */
+	public static final int ExportChunkBytes = 64 << 10;
 }
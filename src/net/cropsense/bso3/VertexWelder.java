@@ -0,0 +1,166 @@
+package net.cropsense.bso3;
+
+import java.util.Arrays;
+
+/**
+ * Welds vertices that are added to a mesh. A vertex closer than the
+ * tolerance to an already added vertex is not added again, instead the index
+ * of the existing vertex is returned.
+ *
+ * Vertices are sorted into a spatial hash of cubic cells with the tolerance
+ * as edge length, so a lookup only has to check the 27 cells around the
+ * vertex.
+ *
+ */
+public class VertexWelder
+{
+	private static final long CELL_MASK = 0x1FFFFFL;
+
+	private final CSGMesh mesh;
+	private final double tolerance;
+	private final double toleranceSquared;
+	private final double cellSize;
+
+	/* open addressing table cell key -> first vertex in the cell */
+	private long[] cellKeys;
+	private int[] cellHeads;
+	private int cellCount;
+
+	/* next vertex in the same cell, indexed by mesh vertex index */
+	private int[] vertexNext;
+
+	/**
+	 * @param mesh mesh the welded vertices are added to
+	 * @param tolerance maximum distance of two vertices that are welded
+	 * @param vertexCapacity expected number of vertices
+	 */
+	public VertexWelder(CSGMesh mesh, double tolerance, int vertexCapacity)
+	{
+		this.mesh = mesh;
+		this.tolerance = Math.max(tolerance, 0);
+		this.toleranceSquared = this.tolerance * this.tolerance;
+		this.cellSize = Math.max(this.tolerance, VarsConstants.DistanceEpsilon);
+
+		int tableSize = 16;
+		while (tableSize < 2 * vertexCapacity)
+			tableSize <<= 1;
+		this.cellKeys = new long[tableSize];
+		this.cellHeads = new int[tableSize];
+		Arrays.fill(this.cellHeads, -1);
+		this.vertexNext = new int[Math.max(mesh.VertexCount + vertexCapacity, 16)];
+	}
+
+	/**
+	 * Returns the index of a vertex within the tolerance of the given
+	 * position, adding a new vertex to the mesh if there is none.
+	 */
+	public int weld(double x, double y, double z)
+	{
+		long cellX = (long) Math.floor(x / cellSize);
+		long cellY = (long) Math.floor(y / cellSize);
+		long cellZ = (long) Math.floor(z / cellSize);
+
+		int vertex = find(x, y, z, cellX, cellY, cellZ);
+		if (vertex != -1)
+			return vertex;
+
+		vertex = mesh.addVertex(x, y, z);
+		insert(vertex, cellKey(cellX, cellY, cellZ));
+		return vertex;
+	}
+
+	private int find(double x, double y, double z, long cellX, long cellY,
+			long cellZ)
+	{
+		double[] coords = mesh.VertexCoords;
+		for (long dx = -1; dx <= 1; dx++)
+			for (long dy = -1; dy <= 1; dy++)
+				for (long dz = -1; dz <= 1; dz++)
+				{
+					int slot = slot(cellKey(cellX + dx, cellY + dy, cellZ + dz));
+					if (slot == -1)
+						continue;
+
+					for (int vertex = cellHeads[slot]; vertex != -1; vertex = vertexNext[vertex])
+					{
+						int offset = 3 * vertex;
+						double distX = coords[offset] - x;
+						double distY = coords[offset + 1] - y;
+						double distZ = coords[offset + 2] - z;
+						if (distX * distX + distY * distY + distZ * distZ <= toleranceSquared)
+							return vertex;
+					}
+				}
+		return -1;
+	}
+
+	private static long cellKey(long cellX, long cellY, long cellZ)
+	{
+		// wrapped cells only cost additional distance checks
+		return ((cellX & CELL_MASK) << 42) | ((cellY & CELL_MASK) << 21)
+				| (cellZ & CELL_MASK);
+	}
+
+	private static int hash(long key)
+	{
+		key *= 0x9E3779B97F4A7C15L;
+		return (int) (key ^ (key >>> 32));
+	}
+
+	// Returns the table slot of the cell, or -1 if the cell is empty
+	private int slot(long key)
+	{
+		int mask = cellKeys.length - 1;
+		for (int slot = hash(key) & mask;; slot = (slot + 1) & mask)
+		{
+			if (cellHeads[slot] == -1)
+				return -1;
+			if (cellKeys[slot] == key)
+				return slot;
+		}
+	}
+
+	private void insert(int vertex, long key)
+	{
+		if (vertex >= vertexNext.length)
+			vertexNext = Arrays.copyOf(vertexNext, Math.max(2 * vertexNext.length, vertex + 1));
+
+		int mask = cellKeys.length - 1;
+		int slot = hash(key) & mask;
+		while (cellHeads[slot] != -1 && cellKeys[slot] != key)
+			slot = (slot + 1) & mask;
+
+		if (cellHeads[slot] == -1)
+		{
+			cellKeys[slot] = key;
+			cellCount++;
+		}
+		vertexNext[vertex] = cellHeads[slot];
+		cellHeads[slot] = vertex;
+
+		if (2 * cellCount > cellKeys.length)
+			rehash();
+	}
+
+	private void rehash()
+	{
+		long[] oldKeys = cellKeys;
+		int[] oldHeads = cellHeads;
+
+		cellKeys = new long[2 * oldKeys.length];
+		cellHeads = new int[2 * oldHeads.length];
+		Arrays.fill(cellHeads, -1);
+
+		int mask = cellKeys.length - 1;
+		for (int i = 0; i < oldKeys.length; i++)
+		{
+			if (oldHeads[i] == -1)
+				continue;
+			int slot = hash(oldKeys[i]) & mask;
+			while (cellHeads[slot] != -1)
+				slot = (slot + 1) & mask;
+			cellKeys[slot] = oldKeys[i];
+			cellHeads[slot] = oldHeads[i];
+		}
+	}
+}
@@ -0,0 +1,103 @@
+package net.cropsense.bso3;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+public class CSGMeshBoundaryTest
+{
+	// a cube without its visible first face
+	private static CSGMesh openBox()
+	{
+		CSGMesh mesh = CSGMesh.CreateFromPlanes(new Plane[] {
+				new Plane(1, 0, 0, 1), new Plane(-1, 0, 0, 1),
+				new Plane(0, 1, 0, 1), new Plane(0, -1, 0, 1),
+				new Plane(0, 0, 1, 1), new Plane(0, 0, -1, 1) });
+		for (int polygon = 1; polygon < mesh.PolygonCount; polygon++)
+			mesh.setVisible(polygon, true);
+		return mesh;
+	}
+
+	@Test
+	public void testRepeatedFilteringKeepsBoundary()
+	{
+		CSGMesh mesh = openBox();
+		CSGContext context = new CSGContext();
+		int boundary = mesh.boundaryEdges().size();
+		assertEquals(4, boundary);
+
+		mesh.filterMesh2(context);
+		mesh.filterMesh2(context);
+		assertEquals(boundary, mesh.boundaryEdges.size());
+		mesh.filterMesh3(context);
+		assertEquals(boundary, mesh.boundaryEdges.size());
+	}
+
+	@Test
+	public void testEdgeWithoutTwin()
+	{
+		CSGMesh mesh = openBox();
+		int edge = mesh.boundaryEdges().get(0);
+		int twin = mesh.EdgeTwin[edge];
+		mesh.EdgeTwin[edge] = -1;
+		mesh.EdgeTwin[twin] = -1;
+		// the twin lies in the hidden polygon
+		assertTrue(mesh.isBoundaryEdge(edge));
+		assertFalse(mesh.isBoundaryEdge(twin));
+		assertEquals(4, mesh.boundaryEdges().size());
+		assertEquals(1, mesh.boundaryLoops().size());
+
+		CSGContext context = new CSGContext();
+		mesh.filterMesh2(context);
+		mesh.filterMesh3(context);
+		assertEquals(4, mesh.boundaryEdges.size());
+
+		int start = mesh.otherVertex(edge);
+		int end = mesh.EdgeVertex[edge];
+		int newEdge = mesh.EdgeSplit(edge, 0, 0, 0);
+		int vertex = mesh.VertexCount - 1;
+		assertEquals(-1, mesh.EdgeTwin[newEdge]);
+		assertEquals(newEdge, mesh.EdgeNext[edge]);
+		assertEquals(start, mesh.otherVertex(edge));
+		assertEquals(vertex, mesh.EdgeVertex[edge]);
+		assertEquals(vertex, mesh.otherVertex(newEdge));
+		assertEquals(end, mesh.EdgeVertex[newEdge]);
+		assertEquals(5, mesh.boundaryEdges().size());
+	}
+
+	@Test
+	public void testFilterMeshWithoutTwin()
+	{
+		CSGMesh mesh = openBox();
+		int edge = mesh.boundaryEdges().get(0);
+		mesh.EdgeTwin[mesh.EdgeTwin[edge]] = -1;
+		mesh.EdgeTwin[edge] = -1;
+		mesh.filterMesh(new CSGContext());
+		assertTrue(mesh.boundaryEdges().contains(edge));
+	}
+
+	@Test
+	public void testCombineKeepsMissingTwins()
+	{
+		CSGMesh closed = openBox();
+		CSGMesh open = openBox();
+		int edge = open.boundaryEdges().get(0);
+		open.EdgeTwin[open.EdgeTwin[edge]] = -1;
+		open.EdgeTwin[edge] = -1;
+
+		KVPairs<CSGNode, CSGMesh> meshes = new KVPairs<CSGNode, CSGMesh>();
+		meshes.put(new CSGNode("closed", new ArrayList<Plane>()), closed);
+		meshes.put(new CSGNode("open", new ArrayList<Plane>()), open);
+		CSGMesh combined = CSGMesh.Combine(new CSGContext(), new Vector3(),
+				meshes);
+		int missing = 0;
+		for (int i = 0; i < combined.EdgeCount; i++)
+			if (combined.EdgeTwin[i] == -1)
+				missing++;
+		assertEquals(2, missing);
+	}
+}
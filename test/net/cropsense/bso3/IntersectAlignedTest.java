@@ -0,0 +1,85 @@
+package net.cropsense.bso3;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import de.grogra.xl.util.IntList;
+
+public class IntersectAlignedTest
+{
+	private static Plane[] box(double halfWidth, double halfHeight,
+			Plane top)
+	{
+		return new Plane[] { new Plane(1, 0, 0, halfWidth),
+				new Plane(-1, 0, 0, halfWidth), new Plane(0, 1, 0, halfWidth),
+				new Plane(0, -1, 0, halfWidth), top,
+				new Plane(0, 0, -1, halfHeight) };
+	}
+
+	// Intersects the polygons of the big box with the small box, returns the
+	// sizes of inside, aligned, reverse aligned and outside
+	private static int[] intersect(boolean planeIds)
+	{
+		Plane[] bigPlanes = box(50, 1, new Plane(0, 0, 1, 1));
+		// the top is within the epsilons of the plane registry at the
+		// origin, but more than DistanceEpsilon off at the small box's sides
+		double length = Math.sqrt(1 + 1e-10);
+		Plane[] smallPlanes = box(10, 1, new Plane(1e-5 / length, 0,
+				1 / length, 1 / length));
+
+		CSGMesh big = CSGMesh.CreateFromPlanes(bigPlanes);
+		CSGMesh small = CSGMesh.CreateFromPlanes(smallPlanes);
+		if (planeIds)
+		{
+			PlaneRegistry registry = new PlaneRegistry();
+			big.registerPlanes(registry);
+			small.registerPlanes(registry);
+			assertEquals(big.PlaneIds[4], small.PlaneIds[4]);
+		}
+
+		IntList polygons = new IntList();
+		for (int polygon = 0; polygon < big.PolygonCount; polygon++)
+			polygons.add(polygon);
+		IntList inside = new IntList();
+		IntList aligned = new IntList();
+		IntList revAligned = new IntList();
+		IntList outside = new IntList();
+		big.Intersect(small.Bounds, small.Planes, new Vector3(), new Vector3(),
+				polygons, inside, aligned, revAligned, outside);
+		return new int[] { inside.size(), aligned.size(), revAligned.size(),
+				outside.size() };
+	}
+
+	@Test
+	public void testTiltedCoplanarFaceIsSplit()
+	{
+		int[] geometric = intersect(false);
+		int[] withIds = intersect(true);
+		assertEquals("inside", geometric[0], withIds[0]);
+		assertEquals("aligned", geometric[1], withIds[1]);
+		assertEquals("reverse aligned", geometric[2], withIds[2]);
+		assertEquals("outside", geometric[3], withIds[3]);
+	}
+
+	@Test
+	public void testCoplanarFaceIsAligned()
+	{
+		Plane[] bigPlanes = box(50, 1, new Plane(0, 0, 1, 1));
+		Plane[] smallPlanes = box(10, 1, new Plane(0, 0, 1, 1));
+		CSGMesh big = CSGMesh.CreateFromPlanes(bigPlanes);
+		CSGMesh small = CSGMesh.CreateFromPlanes(smallPlanes);
+		PlaneRegistry registry = new PlaneRegistry();
+		big.registerPlanes(registry);
+		small.registerPlanes(registry);
+
+		IntList polygons = new IntList();
+		for (int polygon = 0; polygon < big.PolygonCount; polygon++)
+			polygons.add(polygon);
+		IntList aligned = new IntList();
+		big.Intersect(small.Bounds, small.Planes, new Vector3(), new Vector3(),
+				polygons, new IntList(), aligned, new IntList(), new IntList());
+		// the part of the top and the part of the bottom inside the small box
+		assertEquals(2, aligned.size());
+	}
+}
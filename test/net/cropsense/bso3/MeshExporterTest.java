@@ -0,0 +1,108 @@
+package net.cropsense.bso3;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class MeshExporterTest
+{
+	private static CSGNode box(double x, double y, double z, double half)
+	{
+		List<Plane> planes = new ArrayList<Plane>();
+		planes.add(new Plane(1, 0, 0, x + half));
+		planes.add(new Plane(-1, 0, 0, -x + half));
+		planes.add(new Plane(0, 1, 0, y + half));
+		planes.add(new Plane(0, -1, 0, -y + half));
+		planes.add(new Plane(0, 0, 1, z + half));
+		planes.add(new Plane(0, 0, -1, -z + half));
+		return new CSGNode("box", planes);
+	}
+
+	private static KVPairs<CSGNode, CSGMesh> meshes()
+	{
+		CSGNode root = new CSGNode("op", CSGNodeType.Subtraction, box(0, 0, 0,
+				1), box(1, 0.5, 0.25, 1));
+		CSGUtility.UpdateChildTransformations(root, new Vector3());
+		CSGUtility.UpdateBounds(root);
+		List<CSGNode> nodes = new ArrayList<CSGNode>();
+		nodes.add(root);
+		return CSGCategorization.ProcessCSGNodes(new CSGContext(), root, nodes);
+	}
+
+	private static byte[] read(File file) throws IOException
+	{
+		RandomAccessFile in = new RandomAccessFile(file, "r");
+		try
+		{
+			byte[] bytes = new byte[(int) in.length()];
+			in.readFully(bytes);
+			return bytes;
+		}
+		finally
+		{
+			in.close();
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testTinyChunk() throws IOException
+	{
+		KVPairs<CSGNode, CSGMesh> meshes = meshes();
+		File file = File.createTempFile("bso3", ".stl");
+
+		new MeshExporter().writeSTL(meshes, file);
+		byte[] stl = read(file);
+		new MeshExporter(1).writeSTL(meshes, file);
+		assertTrue(Arrays.equals(stl, read(file)));
+
+		int triangles = ByteBuffer.wrap(stl).order(ByteOrder.LITTLE_ENDIAN)
+				.getInt(80);
+		assertTrue(triangles > 0);
+		assertEquals(84 + 50 * triangles, stl.length);
+
+		new MeshExporter().writePLY(meshes, file);
+		byte[] ply = read(file);
+		new MeshExporter(1).writePLY(meshes, file);
+		assertTrue(Arrays.equals(ply, read(file)));
+	}
+
+	@Test
+	public void testUnitNormals() throws IOException
+	{
+		// planes with scaled normals, like those of a scaled primitive
+		CSGMesh mesh = CSGMesh.CreateFromPlanes(new Plane[] {
+				new Plane(2, 0, 0, 2), new Plane(-2, 0, 0, 2),
+				new Plane(0, 3, 0, 3), new Plane(0, -3, 0, 3),
+				new Plane(0, 0, 0.5, 0.5), new Plane(0, 0, -0.5, 0.5) });
+		for (int polygon = 0; polygon < mesh.PolygonCount; polygon++)
+			mesh.setVisible(polygon, true);
+		KVPairs<CSGNode, CSGMesh> meshes = new KVPairs<CSGNode, CSGMesh>();
+		meshes.put(new CSGNode("box", new ArrayList<Plane>()), mesh);
+
+		File file = File.createTempFile("bso3", ".stl");
+		new MeshExporter().writeSTL(meshes, file);
+		ByteBuffer stl = ByteBuffer.wrap(read(file)).order(
+				ByteOrder.LITTLE_ENDIAN);
+		int triangles = stl.getInt(80);
+		assertEquals(12, triangles);
+		for (int i = 0; i < triangles; i++)
+		{
+			int offset = 84 + 50 * i;
+			double x = stl.getFloat(offset);
+			double y = stl.getFloat(offset + 4);
+			double z = stl.getFloat(offset + 8);
+			assertEquals(1, Math.sqrt(x * x + y * y + z * z), 1e-6);
+		}
+	}
+}
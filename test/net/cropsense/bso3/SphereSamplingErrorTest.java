@@ -0,0 +1,114 @@
+package net.cropsense.bso3;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import javax.vecmath.Matrix4d;
+
+import org.junit.Test;
+
+public class SphereSamplingErrorTest
+{
+	private static Matrix4d identity()
+	{
+		return scaling(1);
+	}
+
+	private static Matrix4d scaling(double scale)
+	{
+		Matrix4d transformation = new Matrix4d();
+		transformation.setIdentity();
+		transformation.m00 = scale;
+		transformation.m11 = scale;
+		transformation.m22 = scale;
+		return transformation;
+	}
+
+	private static double maxDeviation(List<Plane> planes, double radius)
+	{
+		CSGMesh mesh = CSGMesh.CreateFromPlanes(planes.toArray(new Plane[planes
+				.size()]));
+		double deviation = 0;
+		double[] coords = mesh.VertexCoords;
+		for (int offset = 0; offset < 3 * mesh.VertexCount; offset += 3)
+			deviation = Math.max(deviation, Math.sqrt(coords[offset]
+					* coords[offset] + coords[offset + 1] * coords[offset + 1]
+					+ coords[offset + 2] * coords[offset + 2])
+					- radius);
+		return deviation;
+	}
+
+	private static void assertDeviation(SphereSampling sampling)
+	{
+		float radius = 2;
+		for (double error : new double[] { 0.1, 0.02, 0.005 })
+		{
+			CSGContext context = new CSGContext();
+			context.MaxSamplingError = error;
+			context.MaxPlanesSampling = 100000;
+			int n = Transformer.sphereGridSize(context, sampling,
+					radius, identity());
+			List<Plane> planes = sampling == SphereSampling.Fibonacci
+					? Transformer.sphereFibonacciPlanes(radius, n * (n - 2))
+					: Transformer.spherePlanes(radius, n);
+			double deviation = maxDeviation(planes, radius);
+			assertTrue(sampling + " " + error + ": " + deviation,
+					deviation <= error);
+		}
+	}
+
+	@Test
+	public void testGridDeviation()
+	{
+		assertDeviation(SphereSampling.Grid);
+	}
+
+	@Test
+	public void testFibonacciDeviation()
+	{
+		assertDeviation(SphereSampling.Fibonacci);
+	}
+
+	@Test
+	public void testScaledSphereDeviation()
+	{
+		double error = 0.02;
+		for (SphereSampling sampling : SphereSampling.values())
+		{
+			for (double scale : new double[] { 0.25, 4 })
+			{
+				CSGContext context = new CSGContext();
+				context.MaxSamplingError = error;
+				context.MaxPlanesSampling = 100000;
+				Matrix4d transformation = scaling(scale);
+				int n = Transformer.sphereGridSize(context, sampling, 1,
+						transformation);
+				List<Plane> planes = sampling == SphereSampling.Fibonacci
+						? Transformer.sphereFibonacciPlanes(1, n * (n - 2))
+						: Transformer.spherePlanes(1, n);
+				Transformer.transformPlanes(planes, transformation);
+				// the radius of the sphere the transformed planes enclose
+				Plane plane = planes.get(0);
+				double radius = plane.D / plane.Normal().Length();
+				double deviation = maxDeviation(planes, radius);
+				assertTrue(sampling + " " + scale + ": " + deviation,
+						deviation <= error);
+			}
+		}
+	}
+
+	@Test
+	public void testPlaneCountIsCapped()
+	{
+		CSGContext context = new CSGContext();
+		context.MaxSamplingError = 1e-6;
+		int n = Transformer.sphereGridSize(context,
+				SphereSampling.Grid, 1, identity());
+		assertTrue(n * (n - 2) <= context.MaxPlanesSampling);
+
+		int circle = Transformer.planeCount(context, 1, identity(),
+				context.PlanesSamplingCylinders, 2);
+		assertTrue(circle + 2 <= context.MaxPlanesSampling);
+	}
+}
@@ -0,0 +1,28 @@
+package net.cropsense.bso3;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import de.grogra.imp3d.objects.Sphere;
+
+public class SphereSamplingTest
+{
+	@Test
+	public void testSphereOverridesContext()
+	{
+		CSGContext context = new CSGContext();
+		Sphere grid = new Sphere();
+		Sphere fibonacci = new Sphere();
+		context.SphereSamplings.put(fibonacci, SphereSampling.Fibonacci);
+		assertEquals(SphereSampling.Grid, context.getSphereSampling(grid));
+		assertEquals(SphereSampling.Fibonacci, context
+				.getSphereSampling(fibonacci));
+
+		context.SphereSampling = SphereSampling.Fibonacci;
+		context.SphereSamplings.put(grid, SphereSampling.Grid);
+		assertEquals(SphereSampling.Grid, context.getSphereSampling(grid));
+		assertEquals(SphereSampling.Fibonacci, context
+				.getSphereSampling(new Sphere()));
+	}
+}